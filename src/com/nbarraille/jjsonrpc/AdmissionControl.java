@@ -0,0 +1,138 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The admission control of the requests received by a group of peers (for instance all the peers of a TcpServer,
+ * see TcpServer.setAdmissionControl), so that an overloaded server quickly rejects the requests it cannot handle in
+ * time instead of letting the latency of all of them grow. The requests are rejected with a Server Overloaded error
+ * (JJsonPeer.ERROR_CODE_OVERLOADED) before their parameters are cast and their method executed, when:
+ *    + the peer exceeds its rate limit (a TokenBucket per peer, see setRateLimit).
+ *    + the number of requests being executed by all the peers has reached its maximum.
+ *    + the requests wait too long for the request executors of the peers (see setQueueDelay).
+ * Thread-safe.
+ * @author nbarraille
+ *
+ */
+public class AdmissionControl {
+	private int _maxInFlight; // The maximum number of requests being executed, 0 if unlimited.
+	private AtomicInteger _inFlight; // The number of requests being executed.
+	private double _rate; // The number of requests accepted per second from each peer, 0 if unlimited.
+	private int _burst; // The number of requests accepted at once from each peer.
+	private volatile long _target; // The queue delay (in ms) above which the queue is considered standing, 0 if disabled.
+	private volatile long _interval; // The time (in ms) after which a standing queue is considered overloaded.
+	private volatile long _lastBelowTarget; // The last time a request waited less than the target.
+	private AtomicLong _rejected; // The number of requests rejected (for monitoring).
+
+	/**
+	 * Creates an admission control without rate limit and queue delay limit.
+	 * @param maxInFlight the maximum number of requests being executed at the same time, 0 if unlimited.
+	 */
+	public AdmissionControl(int maxInFlight) {
+		_maxInFlight = maxInFlight;
+		_inFlight = new AtomicInteger();
+		_rate = 0;
+		_burst = 0;
+		_target = 0;
+		_interval = 0;
+		_lastBelowTarget = System.currentTimeMillis();
+		_rejected = new AtomicLong();
+	}
+
+	/**
+	 * Limits the rate of the requests of each peer. Applies to the peers configured from now on.
+	 * @param requestsPerSecond the number of requests accepted per second from each peer, 0 if unlimited.
+	 * @param burst the number of requests accepted at once from each peer.
+	 */
+	public synchronized void setRateLimit(double requestsPerSecond, int burst) {
+		_rate = requestsPerSecond;
+		_burst = burst;
+	}
+
+	/**
+	 * Limits the time the requests wait for the request executors, like CoDel: as long as some requests wait less
+	 * than target, the requests can wait up to interval. Once none has for a whole interval, the queue is standing
+	 * and the requests waiting more than target are rejected, until it drains.
+	 * Only applies to the peers with a request executor (see JJsonPeer.setRequestExecutor).
+	 * @param target the acceptable queue delay in ms (typically 5), 0 to disable.
+	 * @param interval the time in ms a queue can stand before requests are rejected (typically 100).
+	 */
+	public void setQueueDelay(long target, long interval) {
+		_target = target;
+		_interval = interval;
+	}
+
+	/**
+	 * Creates the rate limiter of a peer.
+	 * @return the token bucket, or null if the rate is unlimited.
+	 */
+	public synchronized TokenBucket newTokenBucket() {
+		return _rate > 0 ? new TokenBucket(_rate, _burst) : null;
+	}
+
+	/**
+	 * Counts a request as being executed, if the maximum is not reached. Must be followed by release().
+	 * @return true if the request can be executed.
+	 */
+	public boolean tryAcquire() {
+		if(_maxInFlight <= 0) {
+			_inFlight.incrementAndGet();
+			return true;
+		}
+		while(true) {
+			int n = _inFlight.get();
+			if(n >= _maxInFlight)
+				return false;
+			if(_inFlight.compareAndSet(n, n + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Counts the end of the execution of a request.
+	 */
+	public void release() {
+		_inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Returns true if a request that has waited since the given time should be rejected (see setQueueDelay).
+	 * @param receivedTime the time at which the request has been received.
+	 */
+	public boolean shouldShed(long receivedTime) {
+		long target = _target;
+		if(target <= 0)
+			return false;
+
+		long now = System.currentTimeMillis();
+		long sojourn = now - receivedTime;
+		if(sojourn < target) {
+			_lastBelowTarget = now;
+			return false;
+		}
+		long interval = _interval;
+		return sojourn > (now - _lastBelowTarget > interval ? target : interval);
+	}
+
+	/**
+	 * Counts a rejected request.
+	 */
+	void rejected() {
+		_rejected.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of requests being executed.
+	 */
+	public int getInFlight() {
+		return _inFlight.get();
+	}
+
+	/**
+	 * Returns the number of requests rejected so far.
+	 */
+	public long getRejected() {
+		return _rejected.get();
+	}
+}
@@ -0,0 +1,204 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An ApiDefinition contains the methods of an API class, indexed by name for a fast lookup.
+ * It is built once per API class and shared by all the peers using this class, so that they also share
+ * the per-method state (like result caches).
+ * It is built by reflection, unless a dispatcher has been generated for the API class at build time (see JsonRpcApi).
+ * @author nbarraille
+ *
+ */
+public class ApiDefinition {
+	public final static String DISPATCHER_SUFFIX = "Dispatcher"; // Suffix of the generated dispatchers class names.
+	
+	private static Map<Class<?>, ApiDefinition> _definitions = new ConcurrentHashMap<Class<?>, ApiDefinition>();
+	
+	private Class<?> _apiClass; // The API class.
+	private Map<String, List<ApiMethod>> _methods; // The methods of the API, by name.
+	private Map<String, Lane> _lanes; // The lanes of the methods with a Bulkhead, by method name.
+	
+	/**
+	 * Returns the definition of the given API class, building it the first time.
+	 * Thread-safe.
+	 * @param apiClass the API class.
+	 * @return the definition of this API.
+	 */
+	public static ApiDefinition forClass(Class<?> apiClass) {
+		ApiDefinition def = _definitions.get(apiClass);
+		if(def == null) {
+			synchronized(_definitions) {
+				def = _definitions.get(apiClass);
+				if(def == null) {
+					def = getDispatcher(apiClass);
+					if(def == null) {
+						def = new ApiDefinition(apiClass);
+					}
+					_definitions.put(apiClass, def);
+				}
+			}
+		}
+		return def;
+	}
+	
+	/**
+	 * Returns the dispatcher generated for an API class at build time, or null if there is none.
+	 * @param apiClass the API class.
+	 * @return the generated dispatcher, or null.
+	 */
+	private static ApiDefinition getDispatcher(Class<?> apiClass) {
+		try {
+			Class<?> c = Class.forName(apiClass.getName() + DISPATCHER_SUFFIX, true, apiClass.getClassLoader());
+			Object dispatcher = c.getField("INSTANCE").get(null);
+			return dispatcher instanceof ApiDefinition ? (ApiDefinition) dispatcher : null;
+		} catch(ClassNotFoundException e) {
+			return null;
+		} catch(NoSuchFieldException e) {
+			return null;
+		} catch(IllegalAccessException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Builds the definition of an API class.
+	 * @param apiClass the API class.
+	 */
+	protected ApiDefinition(Class<?> apiClass) {
+		_apiClass = apiClass;
+		_methods = new Hashtable<String, List<ApiMethod>>();
+		_lanes = new Hashtable<String, Lane>();
+		for(Method m : apiClass.getMethods()) {
+			// The API methods are called statically
+			if(Modifier.isStatic(m.getModifiers())) {
+				addMethod(new ApiMethod(m));
+			}
+		}
+	}
+	
+	/**
+	 * Builds the definition of an API class from already built methods, without reflection.
+	 * Used by the generated dispatchers.
+	 * @param apiClass the API class.
+	 * @param methods the methods of the API.
+	 */
+	protected ApiDefinition(Class<?> apiClass, ApiMethod[] methods) {
+		_apiClass = apiClass;
+		_methods = new Hashtable<String, List<ApiMethod>>();
+		_lanes = new Hashtable<String, Lane>();
+		for(ApiMethod m : methods) {
+			addMethod(m);
+		}
+	}
+	
+	/**
+	 * Adds a method to the definition.
+	 * @param method the method to add.
+	 */
+	protected void addMethod(ApiMethod method) {
+		List<ApiMethod> list = _methods.get(method.getName());
+		if(list == null) {
+			list = new ArrayList<ApiMethod>();
+			_methods.put(method.getName(), list);
+		}
+		list.add(method);
+		
+		if(method.getLane() != null && !_lanes.containsKey(method.getName())) {
+			_lanes.put(method.getName(), method.getLane());
+		}
+	}
+	
+	public Class<?> getApiClass() {
+		return _apiClass;
+	}
+	
+	/**
+	 * Returns the lane executing the requests for the methods with the given name, so that a request can be routed
+	 * before its method is located.
+	 * @param name the name of the methods.
+	 * @return the lane, or null if the methods have no Bulkhead.
+	 */
+	public Lane getLane(String name) {
+		return _lanes.get(name);
+	}
+	
+	/**
+	 * Returns all the methods with the given name.
+	 * @param name the name of the methods.
+	 * @return the methods, an empty list if there are none.
+	 */
+	public List<ApiMethod> getMethods(String name) {
+		List<ApiMethod> methods = _methods.get(name);
+		return methods == null ? Collections.<ApiMethod>emptyList() : Collections.unmodifiableList(methods);
+	}
+	
+	/**
+	 * Returns the first method with the provided name and compatible parameters. If none of the methods accepts
+	 * the parameters as they are, returns the first one accepting them after conversion (see ApiMethod.isConvertible),
+	 * so that long add(long, long) is preferred over double add(double, double) for integer parameters.
+	 * Returns null if no methods match.
+	 * @param name The name of the method.
+	 * @param params An array containing the parameters of the method.
+	 */
+	public ApiMethod getCompatibleMethod(String name, Object[] params) {
+		List<ApiMethod> methods = _methods.get(name);
+		
+		if(methods == null)
+			return null;
+		
+		for(ApiMethod candidate : methods) {
+			if(candidate.isCompatible(params)) {
+				return candidate;
+			}
+		}
+		
+		for(ApiMethod candidate : methods) {
+			if(candidate.isConvertible(params)) {
+				return candidate;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns the call to the first method with the provided name that can be called with the given named parameters,
+	 * with the same preference as getCompatibleMethod(String, Object[]). Returns null if no methods match.
+	 * The parameters are bound once per method (see ApiMethod.bindNamedParams), and the call holds the ones bound to
+	 * the method returned, in its order, but not cast yet.
+	 * @param name The name of the method.
+	 * @param params The parameters of the method, by name.
+	 */
+	public CallKey getCompatibleCall(String name, Map<String, Object> params) {
+		List<ApiMethod> methods = _methods.get(name);
+		
+		if(methods == null)
+			return null;
+		
+		Object[][] bound = new Object[methods.size()][];
+		for(int i = 0; i < bound.length; i++) {
+			ApiMethod candidate = methods.get(i);
+			bound[i] = candidate.bindNamedParams(params);
+			if(bound[i] != null && candidate.isCompatible(bound[i])) {
+				return new CallKey(candidate, bound[i]);
+			}
+		}
+		
+		for(int i = 0; i < bound.length; i++) {
+			ApiMethod candidate = methods.get(i);
+			if(bound[i] != null && candidate.isConvertible(bound[i])) {
+				return new CallKey(candidate, bound[i]);
+			}
+		}
+		
+		return null;
+	}
+}
@@ -0,0 +1,205 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An ApiMethod is a method of an API class that can be executed by a remote peer, along with everything
+ * the peers need to execute it that can be computed once (parameter types, result cache...).
+ * @author nbarraille
+ *
+ */
+public class ApiMethod {
+	private String _name; // The name of the method.
+	private Method _method; // The static method (null for generated methods).
+	private Class<?>[] _parameterTypes; // The types of its parameters.
+	private String[] _parameterNames; // The names of its parameters, null if they are not known.
+	private Map<String, Integer> _positions; // The position of each parameter, by name. Null if the names are not known.
+	private ResultCache _cache; // The cache of its results, null if it is not Cacheable.
+	private InFlightCalls _inFlightCalls; // Its executing calls, null if it is not SingleFlight.
+	private Lane _lane; // The lane executing its requests, null if it has no Bulkhead.
+	
+	/**
+	 * Creates an API method from a static method of an API class.
+	 * @param method the method.
+	 */
+	public ApiMethod(Method method) {
+		_name = method.getName();
+		_method = method;
+		_parameterTypes = method.getParameterTypes();
+		setParameterNames(getParameterNames(method));
+		
+		Cacheable cacheable = method.getAnnotation(Cacheable.class);
+		if(cacheable != null) {
+			_cache = new ResultCache(cacheable.maxSize(), cacheable.ttl(), cacheable.preserialize());
+		}
+		
+		if(method.isAnnotationPresent(SingleFlight.class) && !Iterator.class.isAssignableFrom(method.getReturnType())) {
+			_inFlightCalls = new InFlightCalls();
+		}
+		
+		Bulkhead bulkhead = method.getAnnotation(Bulkhead.class);
+		if(bulkhead != null) {
+			_lane = Lane.get(bulkhead);
+		}
+	}
+	
+	/**
+	 * Creates an API method without reflection, for the dispatchers generated at build time (see JsonRpcApi).
+	 * The invoke method must be overridden.
+	 * @param name the name of the method.
+	 * @param parameterTypes the types of its parameters.
+	 * @param parameterNames the names of its parameters, null if they are not known.
+	 * @param cache the cache of its results, null if it is not Cacheable.
+	 * @param singleFlight true if it is SingleFlight (and does not return an Iterator).
+	 * @param lane the lane executing its requests, null if it has no Bulkhead.
+	 */
+	protected ApiMethod(String name, Class<?>[] parameterTypes, String[] parameterNames, ResultCache cache,
+			boolean singleFlight, Lane lane) {
+		_name = name;
+		_method = null;
+		_parameterTypes = parameterTypes;
+		setParameterNames(parameterNames);
+		_cache = cache;
+		_inFlightCalls = singleFlight ? new InFlightCalls() : null;
+		_lane = lane;
+	}
+	
+	/**
+	 * Returns the names of the parameters of a method: the value of their Param annotation, or their name in the
+	 * source if it has been compiled with -parameters. Returns null if the name of a parameter is not known.
+	 * @param method the method.
+	 * @return the names of the parameters, or null.
+	 */
+	private static String[] getParameterNames(Method method) {
+		Parameter[] parameters = method.getParameters();
+		String[] names = new String[parameters.length];
+		for(int i = 0; i < parameters.length; i++) {
+			Param param = parameters[i].getAnnotation(Param.class);
+			if(param != null) {
+				names[i] = param.value();
+			} else if(parameters[i].isNamePresent()) {
+				names[i] = parameters[i].getName();
+			} else {
+				return null;
+			}
+		}
+		return names;
+	}
+	
+	/**
+	 * Sets the names of the parameters and builds the table of their positions.
+	 * If two parameters have the same name, the method cannot be called with named parameters.
+	 * @param names the names of the parameters, null if they are not known.
+	 */
+	private void setParameterNames(String[] names) {
+		if(names == null || names.length != _parameterTypes.length)
+			return;
+		
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		for(int i = 0; i < names.length; i++) {
+			if(positions.put(names[i], i) != null)
+				return;
+		}
+		_parameterNames = names;
+		_positions = positions;
+	}
+	
+	public String getName() {
+		return _name;
+	}
+	
+	/**
+	 * Returns the static method, or null if this method belongs to a generated dispatcher.
+	 */
+	public Method getMethod() {
+		return _method;
+	}
+	
+	public Class<?>[] getParameterTypes() {
+		return _parameterTypes;
+	}
+	
+	/**
+	 * Returns the names of the parameters, or null if they are not known (the method cannot be called with
+	 * named parameters).
+	 */
+	public String[] getParameterNames() {
+		return _parameterNames == null ? null : _parameterNames.clone();
+	}
+	
+	/**
+	 * Returns the cache of the results of this method, or null if the method is not Cacheable.
+	 */
+	public ResultCache getCache() {
+		return _cache;
+	}
+	
+	/**
+	 * Returns the calls to this method currently executing, or null if the method is not SingleFlight.
+	 */
+	public InFlightCalls getInFlightCalls() {
+		return _inFlightCalls;
+	}
+	
+	/**
+	 * Returns the lane executing the requests for this method, or null if it has no Bulkhead.
+	 */
+	public Lane getLane() {
+		return _lane;
+	}
+	
+	/**
+	 * Returns true if this method can be called with the given parameters.
+	 * @param params the parameters.
+	 */
+	public boolean isCompatible(Object[] params) {
+		return Helper.areCompatible(params, _parameterTypes);
+	}
+	
+	/**
+	 * Returns true if this method can be called with the given parameters after converting them: numbers to an
+	 * other numeric type, Lists to primitive arrays (see Helper.castParameters).
+	 * @param params the parameters.
+	 */
+	public boolean isConvertible(Object[] params) {
+		return Helper.areConvertible(params, _parameterTypes);
+	}
+	
+	/**
+	 * Binds named parameters to the parameters of this method, in a single pass over them.
+	 * All the parameters of the method must be provided, and no other.
+	 * @param params the parameters, by name.
+	 * @return the parameters in the order of the method, or null if they do not match its parameters names.
+	 */
+	public Object[] bindNamedParams(Map<String, Object> params) {
+		if(_positions == null || params.size() != _parameterTypes.length)
+			return null;
+		
+		// The names are distinct and as many as the parameters, so each position is set exactly once
+		Object[] bound = new Object[_parameterTypes.length];
+		for(Map.Entry<String, Object> param : params.entrySet()) {
+			Integer position = _positions.get(param.getKey());
+			if(position == null)
+				return null;
+			bound[position] = param.getValue();
+		}
+		return bound;
+	}
+	
+	/**
+	 * Invokes the method.
+	 * @param params the parameters, already cast (see Helper.castParameters).
+	 * @return the value returned by the method.
+	 * @throws IllegalAccessException if Java Language Access prevents the invocation of this method.
+	 * @throws IllegalArgumentException if the parameters are not valid for this method.
+	 * @throws InvocationTargetException if the method has thrown an exception.
+	 */
+	public Object invoke(Object[] params) throws IllegalAccessException, InvocationTargetException {
+		return _method.invoke(null, params);
+	}
+}
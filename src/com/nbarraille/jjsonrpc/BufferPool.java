@@ -0,0 +1,167 @@
+package com.nbarraille.jjsonrpc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of reusable ByteBuffers, shared by the transports of all the connections of a server (see
+ * PeerServer.setBufferPool), so that reading and writing frames does not allocate new buffers in steady state.
+ * The buffers are leased for a frame and returned once it is read or written. Their sizes are powers of two, from
+ * MIN_SIZE to MAX_SIZE: a request is served by the smallest class that fits. Larger buffers are not pooled.
+ * The memory kept by the idle buffers is capped: the buffers returned beyond the cap are left to the garbage collector.
+ * The buffers can be direct (off-heap), which saves a copy when a channel is read or written (see ChannelTransport).
+ * The pool also counts the memory of the buffers leased, and can limit the memory used to read the frames of all the
+ * connections (see setMaxLeasedBytes).
+ * Thread-safe.
+ * @author nbarraille
+ *
+ */
+public class BufferPool {
+	public final static int MIN_SIZE = 4096; // Size of the smallest buffers.
+	public final static int MAX_SIZE = 1024 * 1024; // Size of the largest pooled buffers.
+	private final static int DEFAULT_MAX_POOLED_BYTES = 16 * 1024 * 1024;
+	
+	private static BufferPool _default; // The pool of the transports without pool, created lazily.
+	
+	private ArrayDeque<ByteBuffer>[] _classes; // The idle buffers of each size class, smallest first.
+	private boolean _direct; // Are the buffers direct.
+	private long _maxPooledBytes; // The maximum size of the idle buffers.
+	private long _pooledBytes; // The size of the idle buffers (guarded by this).
+	private long _leasedBytes; // The size of the buffers leased (guarded by this).
+	private long _maxLeasedBytes; // The maximum size of the buffers leased through tryAcquire, 0 if unlimited.
+	
+	/**
+	 * Creates a new pool.
+	 * @param maxPooledBytes the maximum memory kept by the idle buffers, in bytes.
+	 * @param direct true to allocate direct buffers, false for heap buffers.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public BufferPool(long maxPooledBytes, boolean direct) {
+		int count = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+		_classes = new ArrayDeque[count];
+		for(int i = 0; i < count; i++) {
+			_classes[i] = new ArrayDeque<ByteBuffer>();
+		}
+		_direct = direct;
+		_maxPooledBytes = maxPooledBytes;
+		_pooledBytes = 0;
+		_leasedBytes = 0;
+		_maxLeasedBytes = 0;
+	}
+	
+	/**
+	 * Returns the pool used by the transports that have not been given one: heap buffers, up to 16MB pooled.
+	 */
+	public static BufferPool getDefault() {
+		synchronized(BufferPool.class) {
+			if(_default == null) {
+				_default = new BufferPool(DEFAULT_MAX_POOLED_BYTES, false);
+			}
+			return _default;
+		}
+	}
+	
+	/**
+	 * Leases a buffer, which should be returned with release once it is not used anymore.
+	 * @param capacity the minimum capacity of the buffer.
+	 * @return a cleared buffer.
+	 */
+	public ByteBuffer acquire(int capacity) {
+		return acquire(capacity, false);
+	}
+	
+	/**
+	 * Leases a buffer, unless the buffers leased would then exceed the maximum set with setMaxLeasedBytes.
+	 * @param capacity the minimum capacity of the buffer.
+	 * @return a cleared buffer, or null if the limit is reached.
+	 */
+	public ByteBuffer tryAcquire(int capacity) {
+		return acquire(capacity, true);
+	}
+	
+	private ByteBuffer acquire(int capacity, boolean limited) {
+		int index = getSizeClass(capacity);
+		int size = index < 0 ? capacity : MIN_SIZE << index;
+		
+		ByteBuffer buffer = null;
+		synchronized(this) {
+			if(limited && _maxLeasedBytes > 0 && _leasedBytes + size > _maxLeasedBytes) {
+				return null;
+			}
+			_leasedBytes += size;
+			if(index >= 0) {
+				buffer = _classes[index].pollLast();
+				if(buffer != null) {
+					_pooledBytes -= size;
+				}
+			}
+		}
+		if(buffer == null) {
+			return allocate(size);
+		}
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer leased from this pool. It must not be used afterwards.
+	 * @param buffer the buffer.
+	 */
+	public void release(ByteBuffer buffer) {
+		int index = getSizeClass(buffer.capacity());
+		synchronized(this) {
+			_leasedBytes -= buffer.capacity();
+			if(index >= 0 && _pooledBytes + buffer.capacity() <= _maxPooledBytes) {
+				_classes[index].addLast(buffer);
+				_pooledBytes += buffer.capacity();
+			}
+		}
+	}
+	
+	/**
+	 * Limits the memory of the buffers leased with tryAcquire: the transports use it to grow the buffer of a frame
+	 * being read, so that the frames of all the connections cannot use more than this memory. The frames that
+	 * would exceed it are discarded, like the frames larger than the maximum frame size (see
+	 * FramedTransport.setMaxFrameSize). The other buffers are still leased, but counted.
+	 * @param maxLeasedBytes the maximum memory of the buffers leased, in bytes, 0 for no limit.
+	 */
+	public synchronized void setMaxLeasedBytes(long maxLeasedBytes) {
+		_maxLeasedBytes = maxLeasedBytes;
+	}
+	
+	/**
+	 * Returns the memory of the buffers currently leased, in bytes.
+	 */
+	public synchronized long getLeasedBytes() {
+		return _leasedBytes;
+	}
+	
+	/**
+	 * Returns true if the buffers of this pool are direct.
+	 */
+	public boolean isDirect() {
+		return _direct;
+	}
+	
+	/**
+	 * Returns the memory kept by the idle buffers, in bytes.
+	 */
+	public synchronized long getPooledBytes() {
+		return _pooledBytes;
+	}
+	
+	/**
+	 * Returns the index of the smallest size class holding the given capacity, or -1 if it is too large.
+	 */
+	private int getSizeClass(int capacity) {
+		if(capacity > MAX_SIZE)
+			return -1;
+		if(capacity <= MIN_SIZE)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+	}
+	
+	private ByteBuffer allocate(int capacity) {
+		return _direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+}
@@ -0,0 +1,45 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Isolates the execution of a method of an API class in a lane: a bounded pool of threads and a bounded queue,
+ * shared by all the methods of the same lane (see Lane). The requests for the method are routed to its lane as soon
+ * as they are read, so that a burst of expensive calls cannot delay the requests for the methods of other lanes.
+ * When the queue of the lane is full, the requests are rejected with a Server Overloaded error
+ * (JJsonPeer.ERROR_CODE_OVERLOADED).
+ * The lane is created by the first method declaring it, the others must declare the same settings (the API cannot
+ * be loaded otherwise). All the methods with the same name should be in the same lane.
+ *
+ * @author nbarraille
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Bulkhead {
+	/**
+	 * The name of the lane.
+	 */
+	String value();
+
+	/**
+	 * The number of threads of the lane.
+	 */
+	int threads() default 4;
+
+	/**
+	 * The maximum number of requests waiting for a thread of the lane, 0 to only accept the requests when a thread is
+	 * idle.
+	 */
+	int queueSize() default 100;
+
+	/**
+	 * The priority of the threads of the lane (see Thread.setPriority). It is only a hint to the scheduler of the
+	 * operating system, that most JVMs ignore on Linux: the lanes are not prioritised otherwise, so the
+	 * latency-critical lanes are protected by their own threads and queue, not by their priority.
+	 */
+	int priority() default Thread.NORM_PRIORITY;
+}
@@ -0,0 +1,38 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of an API class whose result only depends on its parameters, so that it can be cached.
+ * When a peer receives a request for such a method, it first looks for a cached result for the same parameters,
+ * and only invokes the method if there is none (or if it has expired).
+ * The cache is shared by all the peers using the same API class.
+ * The results of methods returning an Iterator are never cached.
+ * 
+ * @author nbarraille
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+	
+	/**
+	 * The maximum number of results kept in the cache. The least recently used ones are evicted first.
+	 */
+	int maxSize() default 1000;
+	
+	/**
+	 * The time (in ms) a result stays valid after being cached. 0 means forever.
+	 */
+	long ttl() default 60000;
+	
+	/**
+	 * If true, the encoded response is cached along with the result, so that a cache hit only has to insert the ID
+	 * of the request in it instead of serializing the result again.
+	 * Worth it for results that are large or costly to serialize.
+	 */
+	boolean preserialize() default false;
+}
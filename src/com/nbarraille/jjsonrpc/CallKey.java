@@ -0,0 +1,48 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.Arrays;
+
+/**
+ * A CallKey identifies a call to an API method: the method and the (already cast) parameters. The calls returned by
+ * ApiDefinition.getCompatibleCall hold parameters that are not cast yet, and are not used as keys.
+ * Two calls to the same method with equal parameters have equal keys.
+ * @author nbarraille
+ *
+ */
+public class CallKey {
+	private ApiMethod _method; // The method called.
+	private Object[] _params; // The parameters of the call.
+	private int _hash; // The hash code, computed once when first needed (0 until then).
+	
+	public CallKey(ApiMethod method, Object[] params) {
+		_method = method;
+		_params = params;
+	}
+	
+	public ApiMethod getMethod() {
+		return _method;
+	}
+	
+	public Object[] getParams() {
+		return _params;
+	}
+	
+	@Override
+	public int hashCode() {
+		int h = _hash;
+		if(h == 0) {
+			h = 31 * _method.hashCode() + Arrays.deepHashCode(_params);
+			_hash = h;
+		}
+		return h;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if(o instanceof CallKey) {
+			CallKey k = (CallKey) o;
+			return hashCode() == k.hashCode() && _method == k._method && Arrays.deepEquals(_params, k._params);
+		}
+		return false;
+	}
+}
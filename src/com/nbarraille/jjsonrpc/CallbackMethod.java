@@ -1,19 +1,24 @@
 package com.nbarraille.jjsonrpc;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
 
 /**
  * A callback method contains all the information to call a specific method.
+ * The method, its instance and its leading parameters are bound once into a MethodHandle, so running the callback
+ * does not modify any state: the same CallbackMethod can be used by any number of concurrent requests.
  * @author nbarraille
  *
  */
 public class CallbackMethod {
 	private Method _method; // The method to call back.
 	private Object _instance; // The instance of the object to call the method on.
-	private Object[] _params; // The parameters to call the method with (just have to add the response at the end)
+	private Object[] _params; // The parameters to call the method with (the last one, the response, is always null)
+	private MethodHandle _handle; // The method bound to the instance and the parameters, only taking the response.
 	
 	
 	/**
@@ -61,9 +66,31 @@ public class CallbackMethod {
 			}
 		}
 		
+		MethodHandle handle;
+		try {
+			handle = MethodHandles.publicLookup().unreflect(method);
+		} catch(IllegalAccessException e) {
+			try {
+				method.setAccessible(true);
+				handle = MethodHandles.lookup().unreflect(method);
+			} catch(IllegalAccessException e2) {
+				throw new InvalidMethodException("The callback method is not accessible");
+			} catch(SecurityException e2) {
+				throw new InvalidMethodException("The callback method is not accessible");
+			}
+		}
+		
+		if(instance != null) {
+			handle = handle.bindTo(instance);
+		}
+		if(params.length > 1) {
+			handle = MethodHandles.insertArguments(handle, 0, Arrays.copyOf(params, params.length - 1));
+		}
+		
 		_method = method;
 		_instance = instance;
 		_params = params;
+		_handle = handle.asType(MethodType.methodType(void.class, Object.class));
 	}
 	
 	public Method getMethod() {
@@ -74,26 +101,24 @@ public class CallbackMethod {
 		return _instance;
 	}
 	
+	/**
+	 * Returns the parameters the method is called with. The last one, reserved for the response, is null.
+	 * @return a copy of the parameters.
+	 */
 	public Object[] getParams() {
-		return _params;
+		return _params.clone();
 	}
 	
 	/**
 	 * Invokes the callback method with the provided response.
+	 * Thread-safe, and can be called concurrently for different responses.
 	 * @param response the response of the request.
 	 */
 	public void run(Object response) {
-		_params[_params.length - 1] = response;
 		try {
-			_method.invoke(_instance, _params);
-		} catch (IllegalArgumentException e) {
-			// Should not happen
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
-			// Should not happen
-			e.printStackTrace();
-		} catch (InvocationTargetException e) {
-			// Should not happen
+			_handle.invokeExact(response);
+		} catch (Throwable e) {
+			// The callback method has thrown an exception (it is not allowed to declare any)
 			e.printStackTrace();
 		}
 	}
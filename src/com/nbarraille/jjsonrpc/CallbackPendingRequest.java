@@ -1,16 +1,23 @@
 package com.nbarraille.jjsonrpc;
 
+import java.util.concurrent.Executor;
 
 public class CallbackPendingRequest extends PendingRequest {
 	private CallbackMethod _callback; // The callback method
+	private Executor _executor; // The executor to run the callback with (null: the peer's one)
 	
-	public CallbackPendingRequest(long id, CallbackMethod callback) {
+	public CallbackPendingRequest(long id, CallbackMethod callback, Executor executor) {
 		super(id);
 		_callback = callback;
+		_executor = executor;
 	}
 	
 	public CallbackMethod getCallback() {
 		return _callback;
 	}
+	
+	public Executor getExecutor() {
+		return _executor;
+	}
 
 }
@@ -0,0 +1,55 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A Transport over a blocking SocketChannel, for instance a Unix domain socket connecting two peers on the same host
+ * (see UnixServer and UnixClient).
+ * The channel is read and written directly, not through Channels.newInputStream/newOutputStream: these streams
+ * share a lock, so a write would wait for the blocking read of the peer to return.
+ * @author nbarraille
+ *
+ */
+public class ChannelTransport extends FramedTransport {
+	private SocketChannel _channel; // The channel used to communicate.
+	
+	/**
+	 * Creates a new Transport over the given channel.
+	 * @param channel the connected channel, in blocking mode.
+	 */
+	public ChannelTransport(SocketChannel channel) {
+		_channel = channel;
+	}
+	
+	/**
+	 * Returns the channel of this transport.
+	 * @return the SocketChannel.
+	 */
+	public SocketChannel getChannel() {
+		return _channel;
+	}
+	
+	protected int read(ByteBuffer dst) throws IOException {
+		return _channel.read(dst);
+	}
+	
+	protected void write(ByteBuffer src) throws IOException {
+		while(src.hasRemaining()) {
+			_channel.write(src);
+		}
+	}
+	
+	public void close() throws IOException {
+		_channel.close();
+	}
+	
+	public String getRemoteAddress() {
+		try {
+			return String.valueOf(_channel.getRemoteAddress());
+		} catch (IOException e) {
+			return "closed";
+		}
+	}
+}
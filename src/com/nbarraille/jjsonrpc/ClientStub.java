@@ -0,0 +1,124 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The base class of the client stubs generated at build time for the API classes annotated with JsonRpcApi.
+ * A stub has a typed method for each method of the API, that sends the request through a peer and decodes the result.
+ * @author nbarraille
+ *
+ */
+public abstract class ClientStub {
+	private JJsonPeer _peer; // The peer to send the requests through.
+	
+	protected ClientStub(JJsonPeer peer) {
+		_peer = peer;
+	}
+	
+	public JJsonPeer getPeer() {
+		return _peer;
+	}
+	
+	/**
+	 * Calls a remote method and blocks until the response arrives.
+	 * @param methodName the name of the remote method.
+	 * @param resultType the type to convert the result to.
+	 * @param args the arguments of the call.
+	 * @return the converted result.
+	 * @throws RemoteCallException if the call did not succeed.
+	 */
+	protected Object call(String methodName, Class<?> resultType, Object... args) {
+		return await(send(methodName, resultType, JJsonPeer.TIMEOUT_SYNC, args), methodName);
+	}
+	
+	/**
+	 * Calls a remote method asynchronously.
+	 * @param methodName the name of the remote method.
+	 * @param resultType the type to convert the result to.
+	 * @param args the arguments of the call.
+	 * @return the future converted result.
+	 */
+	protected CompletableFuture<Object> callAsync(String methodName, Class<?> resultType, Object... args) {
+		return send(methodName, resultType, JJsonPeer.TIMEOUT_ASYNC, args);
+	}
+	
+	/**
+	 * Sends a request to a remote method.
+	 * @param methodName the name of the remote method.
+	 * @param resultType the type to convert the result to.
+	 * @param timeout how long (in ms) the response is waited for.
+	 * @param args the arguments of the call.
+	 * @return the future converted result.
+	 */
+	private CompletableFuture<Object> send(final String methodName, final Class<?> resultType, int timeout, Object... args) {
+		for(int i = 0; i < args.length; i++) {
+			args[i] = Helper.encode(args[i]);
+		}
+		CompletableFuture<Object> future = _peer.sendRequest(methodName, Arrays.asList(args), timeout, true);
+		if(resultType == Object.class)
+			return future;
+		
+		return convert(future, new Function<Object, Object>() {
+			public Object apply(Object result) {
+				if(resultType == Void.TYPE)
+					return null;
+				try {
+					return Helper.convertTo(result, resultType);
+				} catch(ClassCastException e) {
+					throw new RemoteCallException("Unexpected result for " + methodName + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns a future completed with the converted result of the given future. Cancelling it cancels the given
+	 * future too, and so the request.
+	 * @param future the future result of a request.
+	 * @param conversion the conversion of the result.
+	 * @return the future converted result.
+	 */
+	static CompletableFuture<Object> convert(final CompletableFuture<Object> future, Function<Object, Object> conversion) {
+		CompletableFuture<Object> converted = future.thenApply(conversion);
+		converted.whenComplete(new BiConsumer<Object, Throwable>() {
+			public void accept(Object result, Throwable error) {
+				if(error instanceof CancellationException) {
+					future.cancel(false);
+				}
+			}
+		});
+		return converted;
+	}
+	
+	/**
+	 * Waits for the result of a call, at most JJsonPeer.TIMEOUT_SYNC ms.
+	 * @param future the future result of the call.
+	 * @param methodName the name of the remote method, for the error messages.
+	 * @return the result.
+	 * @throws RemoteCallException if the call did not succeed.
+	 */
+	static Object await(CompletableFuture<Object> future, String methodName) {
+		try {
+			return future.get(JJsonPeer.TIMEOUT_SYNC, TimeUnit.MILLISECONDS);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof TimeoutException) // The future has its own timeout (see LoadBalancedClient)
+				throw new RemoteCallException("No response received for " + methodName);
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RemoteCallException(e.getCause().toString());
+		} catch(TimeoutException e) {
+			future.cancel(false);
+			throw new RemoteCallException("No response received for " + methodName);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteCallException("Interrupted while waiting for " + methodName);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+
+/**
+ * Opens new connections to the other peer, so that a JJsonPeer can reconnect when its connection is lost
+ * (see JJsonPeer.setReconnect).
+ * @author nbarraille
+ *
+ */
+public interface Connector {
+	/**
+	 * Opens a new connection to the other peer.
+	 * @return the transport of the new connection.
+	 * @throws IOException if the connection fails, another attempt is then made later.
+	 */
+	public Transport connect() throws IOException;
+}
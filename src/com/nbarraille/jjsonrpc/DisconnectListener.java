@@ -0,0 +1,16 @@
+package com.nbarraille.jjsonrpc;
+
+/**
+ * Is notified when a JJsonPeer is disconnected, see JJsonPeer.addDisconnectListener.
+ * @author nbarraille
+ *
+ */
+public interface DisconnectListener {
+	/**
+	 * Called once the connection of a peer is closed, whatever the reason: closed by either peer, lost, or idle for
+	 * too long. The requests waiting for a response have already been failed.
+	 * Called by the thread that detected the disconnection, it should not block.
+	 * @param peer the disconnected peer.
+	 */
+	public void onDisconnect(JJsonPeer peer);
+}
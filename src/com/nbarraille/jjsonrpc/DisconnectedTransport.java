@@ -0,0 +1,36 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+
+/**
+ * The transport of a peer that is not connected yet: it fails at once, so that the peer opens its first connection
+ * through its Connector, like after a connection lost (see JJsonPeer.setReconnect).
+ * @author nbarraille
+ *
+ */
+class DisconnectedTransport implements Transport {
+	private String _remoteAddress; // The other end of the connection to open, for the logs.
+	
+	/**
+	 * Creates the transport of a peer not connected yet.
+	 * @param remoteAddress describes the other end of the connection to open, for the logs.
+	 */
+	DisconnectedTransport(String remoteAddress) {
+		_remoteAddress = remoteAddress;
+	}
+	
+	public String readFrame() throws IOException {
+		throw new IOException("Not connected yet");
+	}
+	
+	public void writeFrame(String frame) throws IOException {
+		throw new IOException("Not connected yet");
+	}
+	
+	public void close() {
+	}
+	
+	public String getRemoteAddress() {
+		return _remoteAddress;
+	}
+}
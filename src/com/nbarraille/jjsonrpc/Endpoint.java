@@ -0,0 +1,159 @@
+package com.nbarraille.jjsonrpc;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An endpoint is one of the servers a LoadBalancedClient spreads its requests over, with the statistics used to
+ * route them: the number of outstanding requests, the latency of the responses, and the recent failures.
+ * The latency is a peak EWMA: it rises at once when a response is slower than usual, and then decays exponentially
+ * towards the latency of the next responses, so that a server slowing down is avoided right away. A plain moving
+ * average of the latency is kept too, to compare the servers without being misled by a single slow response.
+ * Thread-safe.
+ * @author nbarraille
+ *
+ */
+public class Endpoint {
+	private final static double DECAY_TIME = 10000; // Time constant (in ms) of the decay of the latency.
+	private final static double AVERAGE_WEIGHT = 0.1; // Weight of each response in the average latency.
+	
+	private InetSocketAddress _address; // The address of the server.
+	private TcpClient _client; // The client connected to the server.
+	private AtomicInteger _outstanding; // The number of requests waiting for a response.
+	private double _latency; // The average latency (in ms) of the responses, 0 if none yet.
+	private double _averageLatency; // The moving average of the latency (in ms) of the responses, 0 if none yet.
+	private long _lastSample; // The time (in ms) of the last latency sample.
+	private int _failures; // The number of consecutive failed requests.
+	private long _lastFailure; // The time (in ms) of the last failed request.
+	private long _ejectedUntil; // The time (in ms) until which the endpoint is ejected, 0 if it is not.
+	
+	/**
+	 * Creates an endpoint for a server the given client is connected to.
+	 * @param address the address of the server.
+	 * @param client the client connected to it.
+	 */
+	public Endpoint(InetSocketAddress address, TcpClient client) {
+		_address = address;
+		_client = client;
+		_outstanding = new AtomicInteger();
+		_latency = 0;
+		_averageLatency = 0;
+		_failures = 0;
+		_ejectedUntil = 0;
+	}
+	
+	public InetSocketAddress getAddress() {
+		return _address;
+	}
+	
+	/**
+	 * Returns the peer communicating with the server.
+	 */
+	public JJsonPeer getPeer() {
+		return _client.getPeer();
+	}
+	
+	/**
+	 * Returns the number of requests sent to the server that are waiting for a response.
+	 */
+	public int getOutstanding() {
+		return _outstanding.get();
+	}
+	
+	/**
+	 * Returns the average latency (in ms) of the responses of the server, 0 if none has been received yet.
+	 */
+	public synchronized double getLatency() {
+		return _latency;
+	}
+	
+	/**
+	 * Returns the moving average of the latency (in ms) of the responses of the server, 0 if none has been received yet.
+	 */
+	public synchronized double getAverageLatency() {
+		return _averageLatency;
+	}
+	
+	/**
+	 * Returns the number of consecutive requests that failed because of the server, or were too slow.
+	 * @param since only counts the failures if the last one happened after this time (in ms).
+	 * @return the number of consecutive failures, 0 if the last one is older.
+	 */
+	public synchronized int getFailures(long since) {
+		return _lastFailure >= since ? _failures : 0;
+	}
+	
+	/**
+	 * Returns true if the endpoint is ejected: no request is routed to it until the given time.
+	 * @param now the current time, in ms.
+	 */
+	public synchronized boolean isEjected(long now) {
+		return _ejectedUntil > now;
+	}
+	
+	/**
+	 * Counts a request sent to the server, until requestEnded is called.
+	 */
+	void requestStarted() {
+		_outstanding.incrementAndGet();
+	}
+	
+	/**
+	 * Counts the end of a request sent to the server, and updates the latency and the consecutive failures.
+	 * @param latency how long (in ms) the response has taken, -1 if the server did not answer properly (the time it
+	 * took to fail says nothing about its latency).
+	 * @param failed true if the request has failed because of the server.
+	 * @return the number of consecutive failures.
+	 */
+	synchronized int requestEnded(double latency, boolean failed) {
+		_outstanding.decrementAndGet();
+		long now = System.currentTimeMillis();
+		if(latency >= 0) {
+			if(latency > _latency) {
+				_latency = latency;
+			} else {
+				double w = Math.exp(-(now - _lastSample) / DECAY_TIME);
+				_latency = _latency * w + latency * (1 - w);
+			}
+			_lastSample = now;
+			_averageLatency = _averageLatency == 0 ? latency : _averageLatency + (latency - _averageLatency) * AVERAGE_WEIGHT;
+		}
+		_failures = failed ? _failures + 1 : 0;
+		if(failed) {
+			_lastFailure = now;
+		}
+		return _failures;
+	}
+	
+	/**
+	 * Counts the end of a request whose response was not needed anymore, without updating the latency and the
+	 * consecutive failures.
+	 */
+	void requestAbandoned() {
+		_outstanding.decrementAndGet();
+	}
+	
+	/**
+	 * Ejects the endpoint: no request is routed to it until the given time. Its statistics are reset, so that it is
+	 * tried again once the ejection is over.
+	 * @param until the end of the ejection, in ms.
+	 */
+	synchronized void eject(long until) {
+		_ejectedUntil = until;
+		_latency = 0;
+		_averageLatency = 0;
+		_failures = 0;
+	}
+	
+	/**
+	 * Closes the connection to the server.
+	 */
+	void close() {
+		_client.getPeer().close();
+	}
+	
+	@Override
+	public String toString() {
+		return _address.toString();
+	}
+}
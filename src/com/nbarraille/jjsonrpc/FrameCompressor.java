@@ -0,0 +1,131 @@
+package com.nbarraille.jjsonrpc;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A FrameCompressor deflates and inflates the frames exchanged by a JJsonPeer.
+ * A compressed frame is the deflated UTF-8 bytes of the original frame, encoded in Base64 and prefixed with
+ * COMPRESSED_FRAME_PREFIX, so that it is still a single line of text that cannot be mistaken for a JSON message.
+ * The Deflater, the Inflater and the work buffers are reused from one frame to the other.
+ * Not thread-safe: compress() must only be called by the writing thread (under the output lock) and
+ * decompress() by the reading thread.
+ *
+ * @author nbarraille
+ *
+ */
+public class FrameCompressor {
+	public final static char COMPRESSED_FRAME_PREFIX = '~';
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	private final static int INITIAL_BUFFER_SIZE = 4096;
+
+	private Deflater _deflater; // The reusable compressor.
+	private Inflater _inflater; // The reusable decompressor.
+	private byte[] _deflateBuffer; // Work buffer for the compressed bytes.
+	private byte[] _inflateBuffer; // Work buffer for the decompressed bytes.
+
+	/**
+	 * Creates a new FrameCompressor.
+	 * @param level the deflate compression level (0-9), see Deflater.
+	 */
+	public FrameCompressor(int level) {
+		_deflater = new Deflater(level);
+		_inflater = new Inflater();
+		_deflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+		_inflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+	}
+
+	/**
+	 * Returns true if the given frame has been produced by compress().
+	 * @param frame the frame.
+	 * @return true if the frame is compressed.
+	 */
+	public static boolean isCompressed(String frame) {
+		return frame.length() > 0 && frame.charAt(0) == COMPRESSED_FRAME_PREFIX;
+	}
+
+	/**
+	 * Compresses a frame.
+	 * @param frame the frame to compress.
+	 * @return the compressed frame, starting with COMPRESSED_FRAME_PREFIX.
+	 */
+	public String compress(String frame) {
+		byte[] input = frame.getBytes(UTF8);
+		_deflater.reset();
+		_deflater.setInput(input);
+		_deflater.finish();
+
+		int length = 0;
+		while(!_deflater.finished()) {
+			if(length == _deflateBuffer.length) {
+				byte[] bigger = new byte[_deflateBuffer.length * 2];
+				System.arraycopy(_deflateBuffer, 0, bigger, 0, length);
+				_deflateBuffer = bigger;
+			}
+			length += _deflater.deflate(_deflateBuffer, length, _deflateBuffer.length - length);
+		}
+
+		byte[] compressed = new byte[length];
+		System.arraycopy(_deflateBuffer, 0, compressed, 0, length);
+		return COMPRESSED_FRAME_PREFIX + Base64.getEncoder().encodeToString(compressed);
+	}
+
+	/**
+	 * Decompresses a frame produced by compress().
+	 * @param frame the compressed frame, starting with COMPRESSED_FRAME_PREFIX.
+	 * @return the original frame.
+	 * @throws DataFormatException if the frame is not a valid compressed frame.
+	 */
+	public String decompress(String frame) throws DataFormatException {
+		try {
+			return decompress(frame, 0);
+		} catch(FrameTooLargeException e) {
+			throw new IllegalStateException(e); // No limit
+		}
+	}
+	
+	/**
+	 * Decompresses a frame produced by compress(), unless it is larger than the given size once decompressed.
+	 * The decompression stops as soon as the size is exceeded, so a small frame cannot use a lot of memory.
+	 * @param frame the compressed frame, starting with COMPRESSED_FRAME_PREFIX.
+	 * @param maxLength the maximum size of the original frame, in bytes (encoded in UTF-8), 0 for no limit.
+	 * @return the original frame.
+	 * @throws DataFormatException if the frame is not a valid compressed frame.
+	 * @throws FrameTooLargeException if the original frame is larger than maxLength.
+	 */
+	public String decompress(String frame, int maxLength) throws DataFormatException, FrameTooLargeException {
+		byte[] input;
+		try {
+			input = Base64.getDecoder().decode(frame.substring(1));
+		} catch(IllegalArgumentException e) {
+			throw new DataFormatException("Invalid Base64 content");
+		}
+		_inflater.reset();
+		_inflater.setInput(input);
+
+		int length = 0;
+		while(!_inflater.finished()) {
+			if(maxLength > 0 && length > maxLength) {
+				throw new FrameTooLargeException(length);
+			}
+			if(length == _inflateBuffer.length) {
+				byte[] bigger = new byte[_inflateBuffer.length * 2];
+				System.arraycopy(_inflateBuffer, 0, bigger, 0, length);
+				_inflateBuffer = bigger;
+			}
+			int n = _inflater.inflate(_inflateBuffer, length, _inflateBuffer.length - length);
+			if(n == 0 && (_inflater.needsInput() || _inflater.needsDictionary())) {
+				throw new DataFormatException("Truncated compressed frame");
+			}
+			length += n;
+		}
+		if(maxLength > 0 && length > maxLength) {
+			throw new FrameTooLargeException(length);
+		}
+
+		return new String(_inflateBuffer, 0, length, UTF8);
+	}
+}
@@ -0,0 +1,31 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+
+/**
+ * Thrown by FramedTransport.readFrame when a frame larger than the maximum frame size has been received. The frame
+ * has been discarded as it was read, and the transport can read the next one.
+ * @author nbarraille
+ *
+ */
+public class FrameTooLargeException extends IOException {
+	private static final long serialVersionUID = -2371185903614785240L;
+	
+	private long _size; // The size of the frame, in bytes.
+	
+	/**
+	 * Creates an exception for a discarded frame.
+	 * @param size the size of the frame, in bytes.
+	 */
+	public FrameTooLargeException(long size) {
+		super("Frame of " + size + " bytes discarded");
+		_size = size;
+	}
+	
+	/**
+	 * Returns the size of the discarded frame, in bytes.
+	 */
+	public long getSize() {
+		return _size;
+	}
+}
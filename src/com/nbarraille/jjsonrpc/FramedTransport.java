@@ -0,0 +1,285 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Transport over a stream of bytes, where the frames are encoded in UTF-8 and separated by a new line character.
+ * The bytes are read and written through buffers leased from a BufferPool: the read buffer is only kept while a frame
+ * is incomplete (or while waiting for the next one), and the write buffer while a frame is written. The frames are
+ * encoded directly into the write buffer, without intermediate array.
+ * The frames received larger than the maximum frame size are not buffered: they are discarded while they are read
+ * and readFrame throws a FrameTooLargeException once they end. The same happens if the buffer of a frame cannot be
+ * grown because the pool has reached its limit (see BufferPool.setMaxLeasedBytes).
+ * @author nbarraille
+ *
+ */
+public abstract class FramedTransport implements Transport {
+	public final static int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024; // Maximum size of a frame received, in bytes.
+	private final static byte END_OF_MESSAGE = '\n';
+	private final static byte REPLACEMENT = '?'; // Replaces the invalid characters, as String.getBytes does.
+	
+	private BufferPool _pool; // Lends the buffers.
+	private ByteBuffer _readBuffer; // The bytes received not processed yet, between position and limit, null if none (reading thread only).
+	private volatile int _bufferedBytes; // The number of bytes received not processed yet.
+	private int _maxFrameSize; // The maximum size of a frame received, in bytes, 0 if unlimited.
+	private long _discarded; // The number of bytes of the frame being discarded, -1 if none (reading thread only).
+	
+	protected FramedTransport() {
+		_pool = BufferPool.getDefault();
+		_readBuffer = null;
+		_bufferedBytes = 0;
+		_maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+		_discarded = -1;
+	}
+	
+	/**
+	 * Sets the pool lending the buffers of this transport, for instance a pool shared by all the connections of a
+	 * server. Must be called before the transport is used.
+	 * @param pool the pool.
+	 */
+	public void setBufferPool(BufferPool pool) {
+		_pool = pool;
+	}
+	
+	/**
+	 * Sets the maximum size of the frames received. The larger frames are discarded while they are read, so they
+	 * are never buffered. DEFAULT_MAX_FRAME_SIZE by default.
+	 * @param size the maximum size of a frame, in bytes (encoded in UTF-8), 0 for no limit.
+	 */
+	public void setMaxFrameSize(int size) {
+		_maxFrameSize = size;
+	}
+	
+	/**
+	 * Returns the maximum size of the frames received, in bytes, 0 if unlimited.
+	 */
+	public int getMaxFrameSize() {
+		return _maxFrameSize;
+	}
+	
+	/**
+	 * Returns the number of bytes received and not processed yet (an incomplete frame), excluding the bytes of a
+	 * frame being discarded.
+	 */
+	public int getBufferedBytes() {
+		return _bufferedBytes;
+	}
+	
+	/**
+	 * Reads bytes from the connection, blocking until at least one is available.
+	 * @param dst the buffer to read into, it has some space remaining.
+	 * @return the number of bytes read, or -1 at the end of the stream.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	protected abstract int read(ByteBuffer dst) throws IOException;
+	
+	/**
+	 * Writes all the remaining bytes of a buffer to the connection.
+	 * @param src the bytes to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	protected abstract void write(ByteBuffer src) throws IOException;
+	
+	public String readFrame() throws IOException {
+		if(_readBuffer == null) {
+			_readBuffer = _pool.acquire(BufferPool.MIN_SIZE);
+			_readBuffer.flip();
+		}
+		
+		int scanned = _readBuffer.position(); // The bytes before this one are not the end of the frame.
+		while(true) {
+			for(int i = scanned; i < _readBuffer.limit(); i++) {
+				if(_readBuffer.get(i) == END_OF_MESSAGE) {
+					int length = i - _readBuffer.position();
+					String frame = null;
+					long discarded = _discarded;
+					if(discarded >= 0 || (_maxFrameSize > 0 && length > _maxFrameSize)) {
+						discarded = Math.max(discarded, 0) + length;
+						_discarded = -1;
+					} else {
+						frame = decode(_readBuffer, i);
+					}
+					_readBuffer.position(i + 1);
+					_bufferedBytes = _readBuffer.remaining();
+					if(!_readBuffer.hasRemaining()) {
+						// Nothing left from the next frame, the buffer can be used by other connections meanwhile
+						_pool.release(_readBuffer);
+						_readBuffer = null;
+					}
+					if(frame == null) {
+						throw new FrameTooLargeException(discarded);
+					}
+					return frame;
+				}
+			}
+			
+			int pending = _readBuffer.remaining();
+			if(_discarded < 0 && _maxFrameSize > 0 && pending > _maxFrameSize) {
+				_discarded = 0;
+			}
+			if(_discarded < 0) {
+				// Makes some room after the incomplete frame, moving it to the start of the buffer
+				scanned = pending;
+				_readBuffer.compact();
+				if(!_readBuffer.hasRemaining()) {
+					// Never larger than needed for a frame of the maximum size and its end, the frame is discarded once full
+					long capacity = (long) _readBuffer.capacity() * 2;
+					if(_maxFrameSize > 0) {
+						capacity = Math.min(capacity, (long) _maxFrameSize + 1);
+					}
+					ByteBuffer larger = _pool.tryAcquire((int) Math.min(capacity, Integer.MAX_VALUE));
+					if(larger == null) {
+						_discarded = 0; // No memory left for this frame
+					} else {
+						_readBuffer.flip();
+						larger.put(_readBuffer);
+						_pool.release(_readBuffer);
+						_readBuffer = larger;
+					}
+				}
+			}
+			if(_discarded >= 0) {
+				// Forgets what has been read of the frame, and reads the rest in the same buffer
+				_discarded += pending;
+				_readBuffer.clear();
+				scanned = 0;
+			}
+			_bufferedBytes = _readBuffer.position();
+			
+			int n = read(_readBuffer);
+			_readBuffer.flip();
+			if(n == -1) {
+				_pool.release(_readBuffer);
+				_readBuffer = null;
+				_bufferedBytes = 0;
+				return null;
+			}
+			if(_discarded < 0) {
+				_bufferedBytes = _readBuffer.remaining();
+			}
+		}
+	}
+	
+	public void writeFrame(String frame) throws IOException {
+		int length = frame.length();
+		ByteBuffer buffer = _pool.acquire(length + 1);
+		try {
+			int i = 0;
+			while(i < length) {
+				if(buffer.remaining() < 4) {
+					buffer = grow(buffer);
+				}
+				i = buffer.hasArray() ? encodeInArray(frame, i, buffer) : encode(frame, i, buffer);
+			}
+			if(!buffer.hasRemaining()) {
+				buffer = grow(buffer);
+			}
+			buffer.put(END_OF_MESSAGE);
+			buffer.flip();
+			write(buffer);
+		} finally {
+			_pool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Encodes the characters of a frame in UTF-8 into a heap buffer, through its array: a CharsetEncoder is much
+	 * slower on a String, and so is ByteBuffer.put.
+	 * @param frame the frame.
+	 * @param start the index of the first character to encode.
+	 * @param buffer the buffer, with at least 4 bytes remaining.
+	 * @return the index of the first character not encoded, when the buffer is full or the frame is encoded.
+	 */
+	private static int encodeInArray(String frame, int start, ByteBuffer buffer) {
+		byte[] array = buffer.array();
+		int pos = buffer.arrayOffset() + buffer.position();
+		int max = buffer.arrayOffset() + buffer.limit() - 4; // Room for the longest character
+		int length = frame.length();
+		int i = start;
+		while(i < length && pos <= max) {
+			char c = frame.charAt(i++);
+			if(c < 0x80) {
+				array[pos++] = (byte) c;
+			} else if(c < 0x800) {
+				array[pos++] = (byte) (0xC0 | (c >> 6));
+				array[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(frame.charAt(i))) {
+				int cp = Character.toCodePoint(c, frame.charAt(i++));
+				array[pos++] = (byte) (0xF0 | (cp >> 18));
+				array[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				array[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				array[pos++] = (byte) (0x80 | (cp & 0x3F));
+			} else if(Character.isSurrogate(c)) {
+				array[pos++] = REPLACEMENT;
+			} else {
+				array[pos++] = (byte) (0xE0 | (c >> 12));
+				array[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				array[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		buffer.position(pos - buffer.arrayOffset());
+		return i;
+	}
+	
+	/**
+	 * Encodes the characters of a frame in UTF-8 into a direct buffer.
+	 * @param frame the frame.
+	 * @param start the index of the first character to encode.
+	 * @param buffer the buffer, with at least 4 bytes remaining.
+	 * @return the index of the first character not encoded, when the buffer is full or the frame is encoded.
+	 */
+	private static int encode(String frame, int start, ByteBuffer buffer) {
+		int length = frame.length();
+		int i = start;
+		while(i < length && buffer.remaining() >= 4) {
+			char c = frame.charAt(i++);
+			if(c < 0x80) {
+				buffer.put((byte) c);
+			} else if(c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if(Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(frame.charAt(i))) {
+				int cp = Character.toCodePoint(c, frame.charAt(i++));
+				buffer.put((byte) (0xF0 | (cp >> 18)));
+				buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (cp & 0x3F)));
+			} else if(Character.isSurrogate(c)) {
+				buffer.put(REPLACEMENT);
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		return i;
+	}
+	
+	/**
+	 * Decodes a frame, from the position of the buffer to the given index.
+	 */
+	private String decode(ByteBuffer buffer, int end) {
+		int start = buffer.position();
+		if(buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+		}
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(end);
+		return StandardCharsets.UTF_8.decode(bytes).toString();
+	}
+	
+	/**
+	 * Replaces a full buffer by a buffer twice as large, with the same content.
+	 * @param buffer the buffer, in write mode. It is returned to the pool.
+	 * @return the new buffer, in write mode.
+	 */
+	private ByteBuffer grow(ByteBuffer buffer) {
+		ByteBuffer larger = _pool.acquire(buffer.capacity() * 2);
+		buffer.flip();
+		larger.put(buffer);
+		_pool.release(buffer);
+		return larger;
+	}
+}
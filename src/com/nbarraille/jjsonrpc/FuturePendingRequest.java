@@ -0,0 +1,24 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+public class FuturePendingRequest extends PendingRequest {
+	private CompletableFuture<Object> _future; // The future to complete with the response
+	private Executor _executor; // The executor to complete the future with (null: the peer's one)
+	
+	public FuturePendingRequest(long id, CompletableFuture<Object> future, Executor executor) {
+		super(id);
+		_future = future;
+		_executor = executor;
+	}
+	
+	public CompletableFuture<Object> getFuture() {
+		return _future;
+	}
+	
+	public Executor getExecutor() {
+		return _executor;
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hedging policy decides when a LoadBalancedClient sends a duplicate of a request to another server, because the
+ * response of the first one is late (see LoadBalancedClient.setHedging). The first response is used, and the other
+ * request is cancelled. Only the requests to idempotent methods are hedged (see Idempotent).
+ * A request is hedged once it has waited longer than a percentile of the latency of its method, measured on its
+ * last responses, so that only the slowest requests are duplicated. No request is hedged until enough responses
+ * have been received to measure it.
+ * The hedges are budgeted: each request earns a fraction of a hedge, so that the hedges never add more than a given
+ * part of the load, even when all the servers are slow.
+ * The counters of the policy tell how often the requests are hedged, and how often it pays off.
+ * Thread-safe.
+ * @author nbarraille
+ *
+ */
+public class HedgingPolicy {
+	private final static int WINDOW_SIZE = 1000; // The number of latencies kept per method.
+	private final static int MIN_SAMPLES = 20; // The number of latencies needed to hedge the requests of a method.
+	private final static int UPDATE_INTERVAL = 50; // The number of latencies between two computations of the delay.
+	private final static double MAX_BUDGET = 10; // The maximum number of hedges that can be sent at once.
+	
+	private double _percentile; // The percentile of the latency after which a request is hedged.
+	private long _minDelay; // The minimum delay (in ns) before hedging a request.
+	private double _maxExtraLoad; // The maximum number of hedges per request.
+	private Map<String, Window> _windows; // The latencies of the last responses, by method.
+	private double _budget; // The number of hedges that can be sent (guarded by this).
+	
+	private AtomicLong _requests; // The number of requests that could be hedged.
+	private AtomicLong _hedges; // The number of hedges sent.
+	private AtomicLong _hedgesWon; // The number of hedges whose response came first.
+	private AtomicLong _hedgesDenied; // The number of hedges not sent because the budget was exhausted.
+	
+	/**
+	 * Creates a hedging policy.
+	 * @param percentile the percentile of the latency of a method after which its requests are hedged, for instance
+	 * 95 to hedge the requests slower than 95% of the others.
+	 * @param minDelay the minimum delay (in ms) before hedging a request.
+	 * @param maxExtraLoad the maximum number of hedges per request, for instance 0.05 to add at most 5% of requests.
+	 */
+	public HedgingPolicy(double percentile, long minDelay, double maxExtraLoad) {
+		if(percentile <= 0 || percentile > 100)
+			throw new IllegalArgumentException("The percentile must be between 0 and 100");
+		
+		_percentile = percentile;
+		_minDelay = minDelay * 1000000;
+		_maxExtraLoad = maxExtraLoad;
+		_windows = new ConcurrentHashMap<String, Window>();
+		_budget = MAX_BUDGET;
+		_requests = new AtomicLong();
+		_hedges = new AtomicLong();
+		_hedgesWon = new AtomicLong();
+		_hedgesDenied = new AtomicLong();
+	}
+	
+	/**
+	 * Returns how long (in ns) to wait for the response of a request before hedging it.
+	 * @param methodName the name of the method called.
+	 * @return the delay, or -1 if the request must not be hedged.
+	 */
+	long getDelay(String methodName) {
+		Window window = _windows.get(methodName);
+		long delay = window == null ? -1 : window.getDelay();
+		return delay < 0 ? -1 : Math.max(delay, _minDelay);
+	}
+	
+	/**
+	 * Counts a request that could be hedged, which earns a part of a hedge.
+	 */
+	void requestSent() {
+		_requests.incrementAndGet();
+		synchronized(this) {
+			_budget = Math.min(MAX_BUDGET, _budget + _maxExtraLoad);
+		}
+	}
+	
+	/**
+	 * Takes a hedge from the budget, if there is one.
+	 * @return true if the hedge can be sent.
+	 */
+	boolean tryHedge() {
+		synchronized(this) {
+			if(_budget >= 1) {
+				_budget--;
+				_hedges.incrementAndGet();
+				return true;
+			}
+		}
+		_hedgesDenied.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * Counts a hedge whose response came first.
+	 */
+	void hedgeWon() {
+		_hedgesWon.incrementAndGet();
+	}
+	
+	/**
+	 * Records the latency of a call, from the first request to the first response.
+	 * @param methodName the name of the method called.
+	 * @param latency the latency, in ns.
+	 */
+	void record(String methodName, long latency) {
+		Window window = _windows.get(methodName);
+		if(window == null) {
+			Window created = new Window(_percentile);
+			window = _windows.putIfAbsent(methodName, created);
+			if(window == null) {
+				window = created;
+			}
+		}
+		window.add(latency);
+	}
+	
+	/**
+	 * Returns the current delay (in ms) before hedging a request to the given method.
+	 * @param methodName the name of the method.
+	 * @return the delay, or -1 if its requests are not hedged yet.
+	 */
+	public double getHedgeDelay(String methodName) {
+		long delay = getDelay(methodName);
+		return delay < 0 ? -1 : delay / 1000000.0;
+	}
+	
+	/**
+	 * Returns the number of requests that could be hedged.
+	 */
+	public long getRequests() {
+		return _requests.get();
+	}
+	
+	/**
+	 * Returns the number of hedges sent.
+	 */
+	public long getHedges() {
+		return _hedges.get();
+	}
+	
+	/**
+	 * Returns the number of hedges whose response came before the response of the first request.
+	 */
+	public long getHedgesWon() {
+		return _hedgesWon.get();
+	}
+	
+	/**
+	 * Returns the number of hedges that were not sent because the budget was exhausted.
+	 */
+	public long getHedgesDenied() {
+		return _hedgesDenied.get();
+	}
+	
+	/**
+	 * The latencies of the last responses of a method, and the percentile computed from them.
+	 */
+	private static class Window {
+		private double _percentile; // The percentile computed.
+		private long[] _samples; // The last latencies, in ns, in a circular buffer.
+		private int _count; // The number of latencies recorded, up to WINDOW_SIZE.
+		private int _next; // The index of the next latency in the buffer.
+		private int _sinceUpdate; // The number of latencies recorded since the delay has been computed.
+		private long _delay; // The percentile of the latencies, -1 if there are not enough of them.
+		
+		private Window(double percentile) {
+			_percentile = percentile;
+			_samples = new long[WINDOW_SIZE];
+			_count = 0;
+			_next = 0;
+			_sinceUpdate = 0;
+			_delay = -1;
+		}
+		
+		private synchronized long getDelay() {
+			return _delay;
+		}
+		
+		/**
+		 * Records a latency, and computes the percentile again from time to time.
+		 * @param latency the latency, in ns.
+		 */
+		private synchronized void add(long latency) {
+			_samples[_next] = latency;
+			_next = (_next + 1) % WINDOW_SIZE;
+			_count = Math.min(_count + 1, WINDOW_SIZE);
+			_sinceUpdate++;
+			if(_count < MIN_SAMPLES || (_delay >= 0 && _sinceUpdate < UPDATE_INTERVAL))
+				return;
+			
+			long[] sorted = Arrays.copyOf(_samples, _count);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(_percentile / 100 * _count) - 1;
+			_delay = sorted[Math.max(0, Math.min(index, _count - 1))];
+			_sinceUpdate = 0;
+		}
+	}
+}
@@ -1,6 +1,11 @@
 package com.nbarraille.jjsonrpc;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Helper that contains various methods.
@@ -8,6 +13,24 @@ import java.lang.reflect.Method;
  *
  */
 public class Helper {
+	private final static Map<Class<?>, Class<?>> WRAPPERS = new HashMap<Class<?>, Class<?>>(); // Wrapper class of each primitive type.
+	static {
+		WRAPPERS.put(Boolean.TYPE, Boolean.class);
+		WRAPPERS.put(Byte.TYPE, Byte.class);
+		WRAPPERS.put(Character.TYPE, Character.class);
+		WRAPPERS.put(Short.TYPE, Short.class);
+		WRAPPERS.put(Integer.TYPE, Integer.class);
+		WRAPPERS.put(Long.TYPE, Long.class);
+		WRAPPERS.put(Float.TYPE, Float.class);
+		WRAPPERS.put(Double.TYPE, Double.class);
+		WRAPPERS.put(Void.TYPE, Void.class);
+	}
+	private final static Map<Class<?>, Class<?>> PRIMITIVES = new HashMap<Class<?>, Class<?>>(); // Primitive type of each wrapper class.
+	static {
+		for(Map.Entry<Class<?>, Class<?>> e : WRAPPERS.entrySet()) {
+			PRIMITIVES.put(e.getValue(), e.getKey());
+		}
+	}
 	
 	/**
 	 * Return true if the objects in the array are compatible with the types one by one.
@@ -27,6 +50,193 @@ public class Helper {
 		return true;
 	}
 
+	/**
+	 * Return true if the objects in the array can be converted to the types one by one: like areCompatible, but
+	 * also accepting numbers of an other numeric type (if the conversion is lossless for integer types) and
+	 * Lists for primitive arrays (see castParameters).
+	 */
+	public static boolean areConvertible(Object[] obj, Class<?>[] types) {
+		if(obj == null)
+			return types.length == 0;
+		
+		if(obj.length != types.length)
+			return false;
+		
+		for(int i = 0; i < obj.length; i++) {
+			if(!isCompatible(obj[i], types[i]) && !isConvertible(obj[i], types[i]))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private static boolean isConvertible(Object obj, Class<?> type) {
+		if(obj instanceof Number) {
+			Class<?> primitive = type.isPrimitive() ? type : PRIMITIVES.get(type);
+			return primitive != null && isConvertibleNumber((Number) obj, primitive);
+		}
+		
+		// The elements are checked while converting.
+		return obj instanceof List && type.isArray() && type.getComponentType().isPrimitive();
+	}
+	
+	/**
+	 * Returns true if the number can be converted to the primitive type: any number can be converted to a floating point
+	 * type, only integers in range can be converted to an integer type.
+	 */
+	private static boolean isConvertibleNumber(Number n, Class<?> primitive) {
+		if(primitive == Double.TYPE || primitive == Float.TYPE)
+			return true;
+		
+		if(n instanceof Double || n instanceof Float)
+			return false;
+		
+		long l = n.longValue();
+		if(primitive == Long.TYPE) {
+			return true;
+		} else if(primitive == Integer.TYPE) {
+			return l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE;
+		} else if(primitive == Short.TYPE) {
+			return l >= Short.MIN_VALUE && l <= Short.MAX_VALUE;
+		} else if(primitive == Byte.TYPE) {
+			return l >= Byte.MIN_VALUE && l <= Byte.MAX_VALUE;
+		}
+		return false;
+	}
+	
+	/**
+	 * Converts a number to the wrapper of the given primitive type.
+	 * @throws ClassCastException if the conversion would lose information.
+	 */
+	private static Object convertNumber(Number n, Class<?> primitive) throws ClassCastException {
+		if(!isConvertibleNumber(n, primitive))
+			throw new ClassCastException(n + " cannot be converted to " + primitive.getName());
+		
+		if(primitive == Long.TYPE) {
+			return n.longValue();
+		} else if(primitive == Integer.TYPE) {
+			return n.intValue();
+		} else if(primitive == Double.TYPE) {
+			return n.doubleValue();
+		} else if(primitive == Float.TYPE) {
+			return n.floatValue();
+		} else if(primitive == Short.TYPE) {
+			return n.shortValue();
+		} else {
+			return n.byteValue();
+		}
+	}
+	
+	/**
+	 * Converts a List of numbers (or booleans) straight to a primitive array, without any intermediate object.
+	 * @param list the list.
+	 * @param component the primitive type of the elements of the array.
+	 * @return the array.
+	 * @throws ClassCastException if one of the elements cannot be converted.
+	 */
+	private static Object toPrimitiveArray(List<?> list, Class<?> component) throws ClassCastException {
+		int n = list.size();
+		if(component == Long.TYPE) {
+			long[] a = new long[n];
+			for(int i = 0; i < n; i++) {
+				a[i] = toIntegral(list.get(i), Long.MIN_VALUE, Long.MAX_VALUE);
+			}
+			return a;
+		} else if(component == Integer.TYPE) {
+			int[] a = new int[n];
+			for(int i = 0; i < n; i++) {
+				a[i] = (int) toIntegral(list.get(i), Integer.MIN_VALUE, Integer.MAX_VALUE);
+			}
+			return a;
+		} else if(component == Double.TYPE) {
+			double[] a = new double[n];
+			for(int i = 0; i < n; i++) {
+				a[i] = toFloating(list.get(i));
+			}
+			return a;
+		} else if(component == Float.TYPE) {
+			float[] a = new float[n];
+			for(int i = 0; i < n; i++) {
+				a[i] = (float) toFloating(list.get(i));
+			}
+			return a;
+		} else if(component == Short.TYPE) {
+			short[] a = new short[n];
+			for(int i = 0; i < n; i++) {
+				a[i] = (short) toIntegral(list.get(i), Short.MIN_VALUE, Short.MAX_VALUE);
+			}
+			return a;
+		} else if(component == Byte.TYPE) {
+			byte[] a = new byte[n];
+			for(int i = 0; i < n; i++) {
+				a[i] = (byte) toIntegral(list.get(i), Byte.MIN_VALUE, Byte.MAX_VALUE);
+			}
+			return a;
+		} else if(component == Boolean.TYPE) {
+			boolean[] a = new boolean[n];
+			for(int i = 0; i < n; i++) {
+				a[i] = toBoolean(list.get(i));
+			}
+			return a;
+		}
+		throw new ClassCastException("Cannot convert a List to an array of " + component.getName());
+	}
+	
+	/**
+	 * Returns the value of an integer number, checking its range.
+	 * @throws ClassCastException if obj is not an integer number in range.
+	 */
+	private static long toIntegral(Object obj, long min, long max) throws ClassCastException {
+		if(obj instanceof Double || obj instanceof Float || obj == null)
+			throw new ClassCastException(obj + " is not an integer");
+		
+		long l = ((Number) obj).longValue();
+		if(l < min || l > max)
+			throw new ClassCastException(l + " is out of range");
+		return l;
+	}
+	
+	/**
+	 * Returns the value of a number.
+	 * @throws ClassCastException if obj is not a number.
+	 */
+	private static double toFloating(Object obj) throws ClassCastException {
+		if(obj == null)
+			throw new ClassCastException("null is not a number");
+		
+		return ((Number) obj).doubleValue();
+	}
+	
+	/**
+	 * Returns the value of a boolean.
+	 * @throws ClassCastException if obj is not a boolean.
+	 */
+	private static boolean toBoolean(Object obj) throws ClassCastException {
+		if(obj == null)
+			throw new ClassCastException("null is not a boolean");
+		
+		return (Boolean) obj;
+	}
+	
+	/**
+	 * Prepares a value to be encoded in JSON: primitive arrays are wrapped so that they are written directly,
+	 * char arrays are seen as Strings and object arrays as Lists. Other values are returned unchanged.
+	 * @param value the value.
+	 * @return the value to encode.
+	 */
+	public static Object encode(Object value) {
+		if(value == null || !value.getClass().isArray())
+			return value;
+		
+		if(value instanceof char[])
+			return new String((char[]) value);
+		
+		if(value.getClass().getComponentType().isPrimitive())
+			return new PrimitiveArray(value);
+		
+		return Arrays.asList((Object[]) value);
+	}
+
 	private static boolean isCompatible(Object obj, Class<?> type) {
 		// Null objects are compatible with everything except primitive types.
 		if(obj == null)
@@ -62,6 +272,17 @@ public class Helper {
 		if(targetType.isPrimitive() && isWrapperTypeOf(obj, targetType))
 			return obj; // Isn't Java 5 autoboxing awesome?
 		
+		// Dealing with numbers of an other type
+		if(obj instanceof Number) {
+			Class<?> primitive = targetType.isPrimitive() ? targetType : PRIMITIVES.get(targetType);
+			if(primitive != null)
+				return convertNumber((Number) obj, primitive);
+		}
+		
+		// Dealing with primitive arrays
+		if(obj instanceof List && targetType.isArray() && targetType.getComponentType().isPrimitive())
+			return toPrimitiveArray((List<?>) obj, targetType.getComponentType());
+		
 		return null;
 	}
 	
@@ -70,20 +291,7 @@ public class Helper {
 	 * @return
 	 */
 	private static boolean isWrapperTypeOf(Object obj, Class<?> type) {
-	    try {
-	        return !obj.getClass().isPrimitive() && obj.getClass().getDeclaredField("TYPE").get(null).equals(type);
-	    } catch(NoSuchFieldException e){
-	        return false;
-	    } catch (IllegalArgumentException e) {
-			e.printStackTrace();
-			return false;
-		} catch (SecurityException e) {
-			e.printStackTrace();
-			return false;
-		} catch (IllegalAccessException e) {
-			e.printStackTrace();
-			return false;
-		}
+		return WRAPPERS.get(type) == obj.getClass();
 	}
 	
 	/**
@@ -94,8 +302,18 @@ public class Helper {
 	 * @return the prepared params.
 	 */
 	public static Object[] castParameters(Object[] params, Method method) {
+		return castParameters(params, method.getParameterTypes());
+	}
+	
+	/**
+	 * Prepares the parameters (re-cast) so they can be used with a method taking the given types.
+	 * Returns null if one of the parameters wasn't compatible.
+	 * @param params the params to prepare.
+	 * @param types the types of the parameters of the method.
+	 * @return the prepared params.
+	 */
+	public static Object[] castParameters(Object[] params, Class<?>[] types) {
 		Object[] prepared = new Object[params.length];
-		Class<?>[] types = method.getParameterTypes();
 		
 		if(params.length != types.length)
 			return null;
@@ -112,6 +330,58 @@ public class Helper {
 		return prepared;
 	}
 	
+	/**
+	 * Converts a value received from the other peer to the given type. Numbers are converted to the requested
+	 * numeric type (JSON numbers are decoded as Integer, Long or Double, whatever the type they were sent as).
+	 * @param value the value.
+	 * @param type the type to convert to (may be primitive).
+	 * @return the converted value, an instance of type or of its wrapper.
+	 * @throws ClassCastException if the value cannot be converted.
+	 */
+	public static Object convertTo(Object value, Class<?> type) throws ClassCastException {
+		if(value == null) {
+			if(type.isPrimitive())
+				throw new ClassCastException("Primitive cannot be null.");
+			return null;
+		}
+		
+		Class<?> target = type.isPrimitive() ? WRAPPERS.get(type) : type;
+		if(target.isInstance(value))
+			return value;
+		
+		if(value instanceof Number) {
+			Number n = (Number) value;
+			if(target == Long.class) {
+				return n.longValue();
+			} else if(target == Integer.class) {
+				return n.intValue();
+			} else if(target == Double.class) {
+				return n.doubleValue();
+			} else if(target == Float.class) {
+				return n.floatValue();
+			} else if(target == Short.class) {
+				return n.shortValue();
+			} else if(target == Byte.class) {
+				return n.byteValue();
+			}
+		}
+		
+		if(value instanceof List && target.isArray()) {
+			List<?> list = (List<?>) value;
+			Class<?> component = target.getComponentType();
+			if(component.isPrimitive())
+				return toPrimitiveArray(list, component);
+			
+			Object array = Array.newInstance(component, list.size());
+			for(int i = 0; i < list.size(); i++) {
+				Array.set(array, i, convertTo(list.get(i), component));
+			}
+			return array;
+		}
+		
+		throw new ClassCastException(value.getClass().getName() + " cannot be converted to " + type.getName());
+	}
+	
 	/**
 	 * Returns an array containing the class of each object.
 	 * @param obj the array of objects.
@@ -0,0 +1,23 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a remote method that can safely be executed more than once with the same parameters.
+ * When the connection is lost and the peer reconnects (see JJsonPeer.setReconnect), the requests to such methods
+ * still waiting for a response are sent again on the new connection, while the requests to the other methods fail.
+ * It is read on the methods of the interfaces passed to JJsonPeer.createProxy, and on the methods of the API classes
+ * the client stubs are generated from (see JsonRpcApi). The requests sent by name can be marked with
+ * JJsonPeer.addIdempotentMethod.
+ * Requests for methods returning an Iterator are never sent again, as part of the result may have been consumed.
+ * 
+ * @author nbarraille
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent {
+}
@@ -0,0 +1,132 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+/**
+ * The calls to a SingleFlight method that are currently executing. The first caller of a given CallKey executes
+ * the method, the callers arriving while it runs wait for its outcome and share it.
+ * If the method returns a CompletionStage, the callers arriving before it completes share it too.
+ * Thread-safe.
+ * @author nbarraille
+ *
+ */
+public class InFlightCalls {
+	private Map<CallKey, Call> _calls; // The executing calls.
+	
+	/**
+	 * The outcome of an executing call.
+	 */
+	private static class Call {
+		private boolean _done; // Has the call finished.
+		private Object _result; // The value returned by the method.
+		private Exception _exception; // The exception thrown by the invocation (null if none).
+		private int _followers; // The number of callers waiting for this call (for monitoring).
+		
+		private synchronized void finish(Object result, Exception exception) {
+			_result = result;
+			_exception = exception;
+			_done = true;
+			notifyAll();
+		}
+		
+		private synchronized Object await() throws IllegalAccessException, InvocationTargetException {
+			while(!_done) {
+				try {
+					wait();
+				} catch(InterruptedException e) {
+					// The waiting thread is being stopped, handled like a failure of the method.
+					Thread.currentThread().interrupt();
+					throw new InvocationTargetException(e);
+				}
+			}
+			
+			if(_exception instanceof IllegalAccessException) {
+				throw (IllegalAccessException) _exception;
+			} else if(_exception instanceof InvocationTargetException) {
+				throw (InvocationTargetException) _exception;
+			} else if(_exception instanceof RuntimeException) {
+				throw (RuntimeException) _exception;
+			}
+			return _result;
+		}
+	}
+	
+	public InFlightCalls() {
+		_calls = new HashMap<CallKey, Call>();
+	}
+	
+	/**
+	 * Executes the call identified by the key, or waits for the identical call already executing, and returns its result.
+	 * @param key the method and its (already cast) parameters.
+	 * @return the value returned by the method.
+	 * @throws IllegalAccessException if Java Language Access prevents the invocation of this method.
+	 * @throws IllegalArgumentException if the parameters are not valid for this method.
+	 * @throws InvocationTargetException if the method has thrown an exception.
+	 */
+	public Object execute(final CallKey key) throws IllegalAccessException, InvocationTargetException {
+		Call call;
+		boolean leader = false;
+		synchronized(_calls) {
+			call = _calls.get(key);
+			if(call == null) {
+				call = new Call();
+				_calls.put(key, call);
+				leader = true;
+			} else {
+				call._followers++;
+			}
+		}
+		
+		if(!leader) {
+			return call.await();
+		}
+		
+		Object result = null;
+		Exception exception = null;
+		try {
+			result = key.getMethod().invoke(key.getParams());
+			return result;
+		} catch(IllegalAccessException e) {
+			exception = e;
+			throw e;
+		} catch(InvocationTargetException e) {
+			exception = e;
+			throw e;
+		} catch(RuntimeException e) {
+			exception = e;
+			throw e;
+		} finally {
+			if(result instanceof CompletionStage) {
+				// The identical calls keep sharing the CompletionStage until it completes
+				((CompletionStage<?>) result).whenComplete(new BiConsumer<Object, Throwable>() {
+					@Override
+					public void accept(Object r, Throwable t) {
+						remove(key);
+					}
+				});
+			} else {
+				remove(key);
+			}
+			call.finish(result, exception);
+		}
+	}
+	
+	private void remove(CallKey key) {
+		synchronized(_calls) {
+			_calls.remove(key);
+		}
+	}
+	
+	/**
+	 * Returns the number of calls currently executing.
+	 */
+	public int size() {
+		synchronized(_calls) {
+			return _calls.size();
+		}
+	}
+}
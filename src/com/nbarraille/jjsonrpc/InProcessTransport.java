@@ -0,0 +1,197 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Message;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Notification;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParseException;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Request;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
+
+/**
+ * An in-memory Transport connecting two JJsonPeers of the same JVM through queues, created by pairs (see createPair):
+ * 
+ * JJsonPeer client = new JJsonPeer(pair[0], ClientApi.class);
+ * JJsonPeer server = new JJsonPeer(pair[1], ServerApi.class);
+ * 
+ * The messages are passed as objects, either serialized in JSON and parsed by the receiving end, or not serialized
+ * at all. In the latter case, the values they carry are copied into the types the parser would have created (Longs,
+ * Doubles, Lists, Maps...), so that the calls behave exactly as through a socket: the parameters are converted to
+ * the types of the method, the errors keep their codes, and the values are not shared between the two peers.
+ * The values that are not plain JSON types are still serialized and parsed, one by one.
+ * @author nbarraille
+ *
+ */
+public class InProcessTransport implements MessageTransport {
+	private final static Object CLOSED = new Object(); // Tells the reader that the connection is closed.
+	
+	private BlockingQueue<Object> _inbox; // The messages (or frames) received, not read yet.
+	private InProcessTransport _remote; // The other end of the connection.
+	private boolean _serialize; // Are the messages serialized in JSON.
+	private MessageParser _parser; // Parses the serialized messages (reading thread only).
+	private volatile boolean _closed;
+	
+	private InProcessTransport(boolean serialize) {
+		_inbox = new LinkedBlockingQueue<Object>();
+		_serialize = serialize;
+		_parser = new MessageParser();
+		_closed = false;
+	}
+	
+	/**
+	 * Creates the two ends of a connection.
+	 * @param serialize true to serialize the messages in JSON, false to pass them without serialization.
+	 * @return the two ends, each one reading what the other writes.
+	 */
+	public static InProcessTransport[] createPair(boolean serialize) {
+		InProcessTransport a = new InProcessTransport(serialize);
+		InProcessTransport b = new InProcessTransport(serialize);
+		a._remote = b;
+		b._remote = a;
+		return new InProcessTransport[] {a, b};
+	}
+	
+	public JSONRPC2Message readMessage() throws IOException {
+		Object o = take();
+		if(o == null || o instanceof JSONRPC2Message) {
+			return (JSONRPC2Message) o;
+		}
+		try {
+			return _parser.parse((String) o);
+		} catch(JSONRPC2ParseException e) {
+			throw new IOException("Invalid frame received: " + e.getMessage());
+		}
+	}
+	
+	public void writeMessage(JSONRPC2Message message) throws IOException {
+		_remote.put(_serialize ? message.toString() : copy(message));
+	}
+	
+	public String readFrame() throws IOException {
+		Object o = take();
+		return o == null ? null : o.toString();
+	}
+	
+	public void writeFrame(String frame) throws IOException {
+		_remote.put(frame);
+	}
+	
+	public void close() {
+		if(!_closed) {
+			_closed = true;
+			_inbox.add(CLOSED);
+			_remote.close();
+		}
+	}
+	
+	public String getRemoteAddress() {
+		return "in-process";
+	}
+	
+	/**
+	 * Waits for the next message or frame.
+	 * @return the message or frame, or null if the connection is closed.
+	 */
+	private Object take() throws IOException {
+		try {
+			Object o = _inbox.take();
+			if(o == CLOSED) {
+				_inbox.add(CLOSED); // For the next calls
+				return null;
+			}
+			return o;
+		} catch(InterruptedException e) {
+			throw new IOException("Interrupted while reading");
+		}
+	}
+	
+	private void put(Object o) throws IOException {
+		if(_closed)
+			throw new IOException("Connection closed");
+		_inbox.add(o);
+	}
+	
+	/**
+	 * Copies a message, converting its values to the types that parsing its JSON would give.
+	 * @param message the message to copy.
+	 * @return the copy.
+	 */
+	private static JSONRPC2Message copy(JSONRPC2Message message) {
+		JSONRPC2Message copy;
+		if(message instanceof JSONRPC2Request) {
+			JSONRPC2Request req = (JSONRPC2Request) message;
+			copy = new JSONRPC2Request(req.getMethod(), normalize(req.getID()));
+			((JSONRPC2Request) copy).setParams(normalize(req.getParams()));
+		} else if(message instanceof JSONRPC2Notification) {
+			JSONRPC2Notification not = (JSONRPC2Notification) message;
+			copy = new JSONRPC2Notification(not.getMethod());
+			((JSONRPC2Notification) copy).setParams(normalize(not.getParams()));
+		} else {
+			JSONRPC2Response resp = (JSONRPC2Response) message;
+			JSONRPC2Error error = resp.getError();
+			if(error != null) {
+				copy = new JSONRPC2Response(new JSONRPC2Error(error.getCode(), error.getMessage(),
+						normalize(error.getData())), normalize(resp.getID()));
+			} else {
+				copy = new JSONRPC2Response(normalize(resp.getResult()), normalize(resp.getID()));
+			}
+		}
+		
+		Map<String, Object> attributes = message.getNonStandardAttributes();
+		if(attributes != null) {
+			for(Map.Entry<String, Object> e : attributes.entrySet()) {
+				copy.appendNonStdAttribute(e.getKey(), normalize(e.getValue()));
+			}
+		}
+		return copy;
+	}
+	
+	/**
+	 * Copies a value into the types that parsing its JSON would give.
+	 * @param value the value.
+	 * @return the copy, or the value itself if it is immutable.
+	 */
+	static Object normalize(Object value) {
+		if(value == null || value instanceof String || value instanceof Boolean || value instanceof Long
+				|| value instanceof Double) {
+			return value;
+		} else if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return ((Number) value).longValue();
+		} else if(value instanceof Float) {
+			// Written with its shortest representation, like the JSON encoder does
+			return Double.valueOf(value.toString());
+		} else if(value instanceof Collection) { // Including the PrimitiveArrays
+			JSONArray copy = new JSONArray();
+			for(Object o : (Collection<?>) value) {
+				copy.add(normalize(o));
+			}
+			return copy;
+		} else if(value instanceof Map) {
+			JSONObject copy = new JSONObject();
+			for(Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				copy.put(String.valueOf(e.getKey()), normalize(e.getValue()));
+			}
+			return copy;
+		}
+		
+		// Any other value (big numbers, objects writing their own JSON, arrays...) is serialized and parsed.
+		try {
+			List<?> parsed = (List<?>) new JSONParser(0).parse("[" + JSONValue.toJSONString(value) + "]");
+			return parsed.get(0);
+		} catch(ParseException e) {
+			throw new IllegalArgumentException("The value cannot be encoded in JSON: " + value);
+		}
+	}
+}
@@ -1,67 +1,158 @@
 package com.nbarraille.jjsonrpc;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
 
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Message;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Notification;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2ParseException;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Request;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
 
+import net.minidev.json.JSONValue;
+
 /**
  * A JJsonPeer is an entity that can both send and receive JSON-RCP formatted requests,responses and notifications
- * through the socket it is attached to.
+ * through the transport it is attached to (a TCP socket, or a Unix domain socket, see Transport).
  * Implementation choices:
  *    + The ID of the requests are represented by longs.
  *    + The Peer takes care of casting compatible parameters types so you don't have to use Wrapper types in the API.
- *    + It uses a method cache for a faster method lookup.
- *    + The parameters are passed as a List of objects (not a Map).
+ *      Numbers are converted to the numeric type of the parameter, and arrays of numbers to primitive arrays.
+ *    + Primitive arrays can be returned, they are written without being boxed.
+ *    + It uses a method cache for a faster method lookup, shared by all the peers using the same API class.
+ *    + The results of the Cacheable methods are cached, and reused for later requests with the same parameters.
+ *    + Identical concurrent calls to a SingleFlight method share a single execution.
+ *    + The parameters are passed as a List of objects, or as a Map of named parameters (see Param).
  *    + It is possible to pass null parameters (equivalent to empty list)
  *    + It is possible to make both synchronous and asynchronous calls (requests)
+ *    + The callbacks of the asynchronous calls are run by an executor, not by the thread reading the socket.
+ *    + The requests can be run by an executor too, and the peer can run on virtual threads (see setVirtualThreads).
+ *    + Requests can also be sent through typed proxies of Java interfaces (see createProxy), or return futures.
  *    + The maximum number of concurrent requests is configurable (MAX_PENDING_REQUESTS)
- *    + There is a different Timeout for synchronous and asynchronous requests.
+ *    + There is a different Timeout for synchronous and asynchronous requests. The requests tell the other peer how
+ *      long they are waited for, and are not executed once they have expired.
+ *    + The requests that time out, or whose future is cancelled, are cancelled on the other peer: the method
+ *      executing it is interrupted and no response is sent. The cancellation is only read once the reading
+ *      thread is free: a running method can only be interrupted if the requests are run by an executor or in a lane
+ *      (see setRequestExecutor, setVirtualThreads and Bulkhead).
  *    + It is (supposed to be) thread-safe.
  *    + The methods the peer can execute on the local servers are limited to the ones in the API. 
+ *    + A method can return an Iterator, its result is then streamed in chunks, at the pace of the receiving peer.
+ *    + A method can return a CompletableFuture (or any CompletionStage), the response is then sent when it completes,
+ *      without holding a thread while the result is computed.
+ *    + The requests received can be rejected when overloaded (see setAdmissionControl).
+ *    + The methods can be isolated in lanes with their own threads, so that slow methods do not delay the others
+ *      (see Bulkhead).
+ *    + Frames above a configurable size can be deflated, once both peers have agreed on it (see enableCompression).
+ *    + Two peers of the same JVM can exchange the messages without serializing them (see InProcessTransport).
+ *    + The frames received larger than a configurable size are discarded without being buffered (see setMaxFrameSize).
+ *    + The peer can send heartbeats, and close the connection when the other peer stays silent (see setHeartbeat).
+ *      Once disconnected, the requests waiting for a response fail right away (see addDisconnectListener).
+ *    + The peer can reconnect when the connection is lost, and send the idempotent requests again (see setReconnect).
  *    
  * @author nbarraille <nathan.barraille@gmail.com>
  *
  */
-public class JJsonPeer extends Thread {
-	private final static int TIMEOUT_SYNC = 3000; // Request timeout in ms for synchronous calls.
-	private final static int TIMEOUT_ASYNC = 10000; // Request timeout in ms for asynchronous calls. 
+public class JJsonPeer implements Runnable, RequestSender {
+	final static int TIMEOUT_SYNC = 3000; // Request timeout in ms for synchronous calls.
+	final static int TIMEOUT_ASYNC = 10000; // Request timeout in ms for asynchronous calls. 
 	private final static int ERROR_CODE_PARSE_ERROR = -32700;
 	private final static int ERROR_CODE_INVALID_REQUEST = -32600;
 	private final static int ERROR_CODE_METHOD_NOT_FOUND = -32601;
 	private final static int ERROR_CODE_INVALID_PARAMS = -32602;
 	//private final static int ERROR_CODE_INTERNAL_ERROR = -32603;
 	private final static int ERROR_CODE_SERVER_ERROR = -32099;
+	public final static int ERROR_CODE_DEADLINE_EXCEEDED = -32001; // The request timed out before being executed.
+	public final static int ERROR_CODE_OVERLOADED = -32002; // The request has been rejected by the admission control.
+	public final static int ERROR_CODE_FRAME_TOO_LARGE = -32003; // The frame exceeded the maximum frame size.
+	public final static int ERROR_CODE_CONNECTION_CLOSED = -32004; // The connection closed before the response.
+	public final static int ERROR_CODE_NO_RESPONSE = -32005; // No response (or chunk) received before TIMEOUT_ASYNC.
 	
-	private final static int END_OF_MESSAGE_CHAR = 10;
 	private final static long MAX_PENDING_REQUESTS = 100;
+	private final static String RESERVED_METHOD_PREFIX = "rpc."; // Prefix of the methods of the protocol itself.
+	private final static String METHOD_COMPRESSION = "rpc.compress"; // Notification advertising compression support.
+	private final static String METHOD_CHUNK = "rpc.chunk"; // Notification carrying a chunk of a streamed result.
+	private final static String METHOD_CREDIT = "rpc.credit"; // Notification asking for more chunks of a stream.
+	private final static String METHOD_CANCEL = "rpc.cancel"; // Notification cancelling a request.
+	private final static String METHOD_PING = "rpc.ping"; // Notification keeping the connection alive.
+	private final static int STREAM_CHUNK_SIZE = 100; // Maximum number of items per chunk.
+	private final static int STREAM_INITIAL_CREDITS = 4; // Number of chunks sent before waiting for credits.
+	private final static long STREAM_IDLE_TIMEOUT = 60000; // A stream without credits for this time (in ms) is dropped.
+	private final static int COMPRESSION_LEVEL = 1; // Deflate level, favoring speed over ratio.
+	private final static String ATTRIBUTE_TIMEOUT = "timeout"; // Request attribute: how long (in ms) the sender waits.
 
 	
 	private Logger _log = Logger.getLogger(this.getClass().getCanonicalName()); // The logger object.
-	private Map<String, Set<Method>> _methodsCache;
+	private ApiDefinition _api; // The methods that the other peer can execute.
+	private volatile Executor _callbackExecutor; // Runs the callbacks, null to use the default one.
+	private static Executor _defaultCallbackExecutor; // Runs the callbacks of the peers without executor, created lazily.
+	private static ScheduledExecutorService _scheduler; // Checks the connections of all the peers, created lazily.
+	private static Executor _backgroundExecutor; // Runs the writes of the scheduled tasks, created lazily.
+	private volatile Executor _requestExecutor; // Runs the requests received, null to run them in the reading thread.
+	private ThreadFactory _threadFactory; // Creates the reading thread, null for a platform thread.
 	private List<PendingRequest> _pendingRequests;
+	private Map<Long, ResultStream> _resultStreams; // The results being streamed to the other peer, by request ID.
+	private Map<Long, RunningRequest> _runningRequests; // The requests received not answered yet, by ID.
+	
+	private volatile Transport _transport; // The transport used by the peer to communicate.
+	private final Object _writeLock = new Object(); // Serializes the writes, and guards the compression settings.
+	
+	private FrameCompressor _compressor; // Compresses/Decompresses the frames, created lazily.
+	private int _compressionThreshold; // Minimum size (in chars) of a frame to compress it, 0 if disabled.
+	private boolean _compressionAdvertised; // Did we tell the other peer we can decompress frames.
+	private volatile boolean _remoteDecompresses; // Did the other peer tell us it can decompress frames.
+	
+	private MessageParser _parser; // Parses the frames received (reading thread only).
+	private volatile boolean _sendTimeouts; // Are the timeouts of the requests sent to the other peer.
 	
-	private Socket _socket; // The socket used by the peer to communicate.
-	private InputStream _in; // The InputStream of the socket.
-	private PrintWriter _out; // The OutputStream of the socket.
-	private Class<?> _apiClass;
+	private volatile AdmissionControl _admission; // Rejects the requests when overloaded, null if none.
+	private volatile TokenBucket _tokenBucket; // Limits the rate of the requests of the other peer, null if none.
+	private volatile int _maxFrameSize; // The maximum size of a frame received (decompressed), 0 if unlimited.
+	
+	private volatile long _lastReceived; // The time at which the last frame has been received.
+	private volatile long _lastSent; // The time at which the last frame has been sent.
+	private long _heartbeatInterval; // Send a heartbeat after this time (in ms) without sending anything, 0 if never.
+	private long _idleTimeout; // Close the connection after this time (in ms) without receiving anything, 0 if never.
+	private ScheduledFuture<?> _heartbeat; // The periodic check of the connection, null if none (guarded by this).
+	private final AtomicBoolean _pinging = new AtomicBoolean(); // Is a heartbeat being sent.
+	private volatile boolean _closed; // Has the connection been closed.
+	private List<DisconnectListener> _disconnectListeners; // Notified when the connection is closed.
+	
+	private Connector _connector; // Opens a new connection when it is lost, null to close the peer instead.
+	private long _reconnectDelay; // Delay (in ms) before the second reconnection attempt, doubled after each failure.
+	private long _maxReconnectDelay; // Maximum delay (in ms) between two reconnection attempts.
+	private volatile boolean _reconnecting; // Has the connection been lost, and not reopened yet.
+	private Set<String> _idempotentMethods; // The remote methods whose requests can be sent again after a reconnection.
 	
 	/**
 	 * Creates a new Peer.
@@ -70,12 +161,196 @@ public class JJsonPeer extends Thread {
 	 * @throws ClassNotFoundException if the API Class is invalid.
 	 */
 	public JJsonPeer(Socket socket, Class<?> apiClass) throws IOException {
-		_socket = socket;
-		_in = _socket.getInputStream();
-		_out = new PrintWriter(_socket.getOutputStream(), true);
-		_apiClass = apiClass;
+		this(socket, ApiDefinition.forClass(apiClass));
+	}
+	
+	/**
+	 * Creates a new Peer, executing the methods of the given API definition (for instance a dispatcher
+	 * generated at build time, see JsonRpcApi).
+	 * @param socket the socket this Peer will use to communicate.
+	 * @param api the methods that the other peer can execute.
+	 * @throws IOException if the Socket is closed or not connected.
+	 */
+	public JJsonPeer(Socket socket, ApiDefinition api) throws IOException {
+		this(new SocketTransport(socket), api);
+	}
+	
+	/**
+	 * Creates a new Peer communicating through the given transport.
+	 * @param transport the transport this Peer will use to communicate.
+	 * @param apiClass the class containing the methods that the other peer can execute.
+	 */
+	public JJsonPeer(Transport transport, Class<?> apiClass) {
+		this(transport, ApiDefinition.forClass(apiClass));
+	}
+	
+	/**
+	 * Creates a new Peer communicating through the given transport.
+	 * @param transport the transport this Peer will use to communicate.
+	 * @param api the methods that the other peer can execute.
+	 */
+	public JJsonPeer(Transport transport, ApiDefinition api) {
+		_transport = transport;
+		_api = api;
 		_pendingRequests = Collections.synchronizedList(new ArrayList<PendingRequest>());
-		buildMethodsCache();
+		_resultStreams = new Hashtable<Long, ResultStream>();
+		_runningRequests = new ConcurrentHashMap<Long, RunningRequest>();
+		_compressor = new FrameCompressor(COMPRESSION_LEVEL);
+		_compressionThreshold = 0;
+		_compressionAdvertised = false;
+		_remoteDecompresses = false;
+		_parser = new MessageParser();
+		_sendTimeouts = true;
+		_maxFrameSize = FramedTransport.DEFAULT_MAX_FRAME_SIZE;
+		_lastReceived = System.currentTimeMillis();
+		_lastSent = _lastReceived;
+		_closed = false;
+		_disconnectListeners = new CopyOnWriteArrayList<DisconnectListener>();
+		_reconnecting = transport instanceof DisconnectedTransport; // Connects once started, see setReconnect
+		_idempotentMethods = ConcurrentHashMap.newKeySet();
+		if(_transport instanceof FramedTransport) {
+			((FramedTransport) _transport).setMaxFrameSize(_maxFrameSize);
+		}
+	}
+	
+	/**
+	 * Enables the compression of the frames sent by this peer that are at least threshold characters long, and
+	 * advertises it to the other peer, which will compress its own large frames with the same threshold unless
+	 * it has its own.
+	 * Frames are only compressed once the other peer has advertised it can decompress them, so it is safe to enable
+	 * on only one side. Small frames are always sent as plain text.
+	 * @param threshold the minimum size of a frame to compress it. Must be positive.
+	 */
+	public void enableCompression(int threshold) {
+		if(threshold <= 0)
+			throw new IllegalArgumentException("The compression threshold must be positive");
+		
+		synchronized(_writeLock) {
+			_compressionThreshold = threshold;
+			_compressionAdvertised = true;
+		}
+		advertiseCompression();
+	}
+	
+	/**
+	 * Tells the other peer that this one can decompress frames, and which threshold it uses.
+	 */
+	private void advertiseCompression() {
+		List<Object> args = new ArrayList<Object>();
+		args.add(_compressionThreshold);
+		sendNotification(METHOD_COMPRESSION, args);
+	}
+	
+	/**
+	 * Handles the compression advertisement of the other peer. From now on, our large frames can be compressed.
+	 * If we didn't advertise ourselves yet, we adopt the other peer's threshold and answer with our own advertisement.
+	 * @param argsObj the parameters of the notification (the threshold of the other peer).
+	 */
+	private void processCompressionNotification(Object argsObj) {
+		boolean answer = false;
+		synchronized(_writeLock) {
+			_remoteDecompresses = true;
+			if(!_compressionAdvertised) {
+				if(_compressionThreshold == 0 && argsObj instanceof List && ((List<?>) argsObj).size() == 1
+						&& ((List<?>) argsObj).get(0) instanceof Number) {
+					_compressionThreshold = ((Number) ((List<?>) argsObj).get(0)).intValue();
+				}
+				_compressionAdvertised = true;
+				answer = _compressionThreshold > 0;
+			}
+		}
+		
+		if(answer) {
+			advertiseCompression();
+		}
+	}
+	
+	/**
+	 * Writes a frame through the transport, compressing it if it is large enough and the other peer supports it.
+	 * Thread-safe.
+	 * @param s the frame to write.
+	 */
+	private void write(String s) {
+		IOException failure = null;
+		Transport transport;
+		synchronized(_writeLock) {
+			if(_remoteDecompresses && _compressionThreshold > 0 && s.length() >= _compressionThreshold) {
+				s = _compressor.compress(s);
+			}
+			transport = _transport;
+			try {
+				transport.writeFrame(s);
+				_lastSent = System.currentTimeMillis();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if(failure != null) {
+			writeFailed(transport, failure); // Outside of the lock, since it runs the disconnect listeners
+		}
+	}
+	
+	/**
+	 * Sends a message: passes it as is if the transport carries messages (see MessageTransport), writes its JSON frame
+	 * otherwise. Thread-safe.
+	 * The messages that are not serialized are only logged at the FINE level, since logging them would serialize them.
+	 * While reconnecting, the messages are dropped: they refer to the lost connection.
+	 * @param kind the kind of message, for the logs.
+	 * @param message the message to send.
+	 */
+	private void send(String kind, JSONRPC2Message message) {
+		if(_reconnecting) {
+			_log.log(Level.FINE, "Not connected, " + kind + " dropped");
+			return;
+		}
+		
+		Transport transport = _transport;
+		if(transport instanceof MessageTransport) {
+			if(_log.isLoggable(Level.FINE)) {
+				_log.log(Level.FINE, "Sending " + kind + ":" + message);
+			}
+			try {
+				((MessageTransport) transport).writeMessage(message);
+				_lastSent = System.currentTimeMillis();
+			} catch (IOException e) {
+				writeFailed(transport, e);
+			}
+			return;
+		}
+		
+		String s = message.toString();
+		_log.log(Level.INFO, "Sending " + kind + ":" + s);
+		write(s);
+	}
+	
+	/**
+	 * Handles a write that failed: the connection is broken, so it is closed (unless it already is).
+	 * @param transport the transport that failed.
+	 * @param e the cause.
+	 */
+	private void writeFailed(Transport transport, IOException e) {
+		if(_closed || _reconnecting)
+			return;
+		
+		_log.log(Level.WARNING, "Could not write to " + transport.getRemoteAddress() + ": " + e.getMessage());
+		dropConnection(transport);
+	}
+	
+	/**
+	 * Closes a broken connection: closes the peer, or only the transport if the peer reconnects (the reading thread
+	 * then notices it and reconnects, see setReconnect).
+	 * @param transport the transport of the connection.
+	 */
+	private void dropConnection(Transport transport) {
+		if(_connector == null) {
+			close();
+			return;
+		}
+		try {
+			transport.close();
+		} catch (IOException e) {
+			// Already closed
+		}
 	}
 	
 	/**
@@ -86,29 +361,65 @@ public class JJsonPeer extends Thread {
 	 * will be created. The callback method will be called when the response is received.
 	 * 
 	 * @param callback the callback method to call when the response arrives. If null, will not notify.
+	 * @param executor the executor to run the callback with. If null, the callback executor of the peer will be used.
 	 * @return the id assigned to this request. Returns -1 if the pending request list is full.
 	 */
-	private long registerRequest(CallbackMethod callback) {
-		long id = -1;
-		
+	private long registerRequest(CallbackMethod callback, Executor executor) {
 		synchronized(_pendingRequests) {
-			for(long i = 0; i < MAX_PENDING_REQUESTS; i++) {
-				if(getPendingRequest(i) == null) {
-					id = i;
-					break;
-				}
-			}
-			
+			long id = getUnusedId();
 			if(id != -1) {
 				if(callback == null) {
 					_pendingRequests.add(new WaitingPendingRequest(id));
 				} else {
-					_pendingRequests.add(new CallbackPendingRequest(id, callback));
+					_pendingRequests.add(new CallbackPendingRequest(id, callback, executor));
 				}
 			}
+			return id;
+		}
+	}
+	
+	/**
+	 * Creates a new StreamPendingRequest with the smallest unused ID, and adds it to the pending requests list.
+	 * @param handler the handler that will consume the chunks of the result.
+	 * @return the id assigned to this request. Returns -1 if the pending request list is full.
+	 */
+	private long registerStreamRequest(StreamHandler handler) {
+		synchronized(_pendingRequests) {
+			long id = getUnusedId();
+			if(id != -1) {
+				_pendingRequests.add(new StreamPendingRequest(id, handler));
+			}
+			return id;
 		}
-		
-		return id;
+	}
+	
+	/**
+	 * Creates a new FuturePendingRequest with the smallest unused ID, and adds it to the pending requests list.
+	 * @param future the future to complete when the response arrives.
+	 * @return the id assigned to this request. Returns -1 if the pending request list is full.
+	 */
+	private long registerFutureRequest(CompletableFuture<Object> future) {
+		synchronized(_pendingRequests) {
+			long id = getUnusedId();
+			if(id != -1) {
+				_pendingRequests.add(new FuturePendingRequest(id, future, null));
+			}
+			return id;
+		}
+	}
+	
+	/**
+	 * Returns the smallest ID that is not used by a pending request, or -1 if the list is full.
+	 * Must be called while holding the lock on the pending requests list.
+	 * @return the ID, or -1.
+	 */
+	private long getUnusedId() {
+		for(long i = 0; i < MAX_PENDING_REQUESTS; i++) {
+			if(getPendingRequest(i) == null) {
+				return i;
+			}
+		}
+		return -1;
 	}
 	
 	/**
@@ -140,193 +451,1105 @@ public class JJsonPeer extends Thread {
 			}
 		}
 		
-		return null;
+		return null;
+	}
+	
+	/**
+	 * Removes the expired Pending Requests from the list (older than TIMEOUT_ASYNC), and fails them with a No
+	 * Response error (ERROR_CODE_NO_RESPONSE).
+	 * Thread-safe.
+	 */
+	private void cleanupPendingRequests() {
+		List<PendingRequest> expired = new ArrayList<PendingRequest>();
+		synchronized(_pendingRequests) {
+			long time = System.currentTimeMillis();
+			for(Iterator<PendingRequest> it = _pendingRequests.iterator(); it.hasNext();) {
+				PendingRequest pr = it.next();
+				if(pr.getTime() + TIMEOUT_ASYNC < time) {
+					it.remove();
+					expired.add(pr);
+				}
+			}
+		}
+		
+		for(PendingRequest pr : expired) {
+			// The other peer can stop working on it
+			cancelRequest(pr.getId());
+			// The futures would never complete otherwise, and the callbacks and streams never be told
+			final RemoteError re = new RemoteError(ERROR_CODE_NO_RESPONSE, "No Response", null);
+			if(pr instanceof FuturePendingRequest) {
+				((FuturePendingRequest) pr).getFuture().completeExceptionally(new RemoteCallException("No response received"));
+			} else if(pr instanceof CallbackPendingRequest) {
+				CallbackPendingRequest cpr = (CallbackPendingRequest) pr;
+				runCallback(cpr.getCallback(), re, cpr.getExecutor());
+			} else if(pr instanceof StreamPendingRequest) {
+				final StreamHandler handler = ((StreamPendingRequest) pr).getHandler();
+				execute(new Runnable() {
+					public void run() {
+						handler.onError(re);
+					}
+				}, null);
+			}
+		}
+	}
+	
+	/**
+	 * Starts the thread reading the incoming data, created by the thread factory of this peer
+	 * (a virtual thread if setVirtualThreads has been enabled).
+	 */
+	public void start() {
+		ThreadFactory factory = _threadFactory;
+		Thread t = factory == null ? new Thread(this, "JJsonPeer") : factory.newThread(this);
+		t.start();
+	}
+	
+	/**
+	 * Reads and processes the incoming data until the other peer closes the connection, or until the peer is closed
+	 * if it reconnects (see setReconnect).
+	 * Called by the thread started by start(), should not be called directly.
+	 */
+	public void run() {
+		try {
+			_log.log(Level.INFO, "JJSON Peer listening...");
+			Transport transport;
+			do {
+				transport = _transport;
+				try {
+					readIncomingData(transport);
+					if(!_closed) {
+						_log.log(Level.INFO, "Connection closed by the other peer");
+					}
+				} catch (IOException e) {
+					if(!_closed) {
+						_log.log(Level.WARNING, "Connection lost with " + transport.getRemoteAddress() + ": " + e.getMessage());
+					}
+				}
+			} while(reconnect(transport));
+		} finally {
+			close();
+		}
+	}
+	
+	/**
+	 * Reads and processes the incoming data of a connection until it is closed.
+	 * @param transport the transport of the connection.
+	 * @throws IOException if the connection is lost.
+	 */
+	private void readIncomingData(Transport transport) throws IOException {
+		if(transport instanceof MessageTransport) {
+			JSONRPC2Message message;
+			while((message = ((MessageTransport) transport).readMessage()) != null) {
+				_lastReceived = System.currentTimeMillis();
+				routeIncomingMessage(message);
+			}
+			return;
+		}
+		
+		while(true) {
+			String data;
+			try {
+				// Blocking until a new frame comes in, so that the reading thread can be parked
+				data = transport.readFrame();
+			} catch(FrameTooLargeException e) {
+				_lastReceived = System.currentTimeMillis();
+				_log.log(Level.WARNING, e.getMessage() + " from " + transport.getRemoteAddress());
+				sendErrorResponse(ERROR_CODE_FRAME_TOO_LARGE, "Frame Too Large");
+				continue;
+			}
+			if(data == null) {
+				return;
+			}
+			_lastReceived = System.currentTimeMillis();
+			routeIncomingData(data);
+		}
+	}
+	
+	/**
+	 * Makes the peer reconnect when its connection is lost, instead of being closed. The first attempt is made right
+	 * away, the next ones are spaced by an exponential backoff with random jitter (so that the clients of a server
+	 * that restarts do not all reconnect at the same time), until one succeeds or the peer is closed.
+	 * Once the connection is lost, the requests waiting for a response fail with a Connection Closed error
+	 * (ERROR_CODE_CONNECTION_CLOSED), except the requests to idempotent methods (see Idempotent): they are sent again
+	 * on the new connection. The requests made while reconnecting are kept the same way, or fail right away.
+	 * The disconnect listeners are only notified when the peer is closed.
+	 * @param connector opens the new connections, null to close the peer when the connection is lost (the default).
+	 * @param initialDelay the delay (in ms) before the second attempt, doubled after each failure. Must be positive.
+	 * @param maxDelay the maximum delay (in ms) between two attempts.
+	 */
+	public void setReconnect(Connector connector, long initialDelay, long maxDelay) {
+		if(connector != null && initialDelay <= 0)
+			throw new IllegalArgumentException("The reconnection delay must be positive");
+		
+		synchronized(this) {
+			_reconnectDelay = initialDelay;
+			_maxReconnectDelay = Math.max(initialDelay, maxDelay);
+			_connector = connector;
+		}
+	}
+	
+	/**
+	 * Marks a remote method as idempotent: its requests can be sent again after a reconnection (see Idempotent).
+	 * The methods annotated with Idempotent are marked automatically by the proxies and the client stubs.
+	 * @param methodName the name of the remote method.
+	 */
+	public void addIdempotentMethod(String methodName) {
+		_idempotentMethods.add(methodName);
+	}
+	
+	/**
+	 * Reopens the connection after it has been lost, if the peer reconnects (see setReconnect).
+	 * Run by the reading thread, which waits between the attempts.
+	 * @param lost the transport of the lost connection.
+	 * @return true if the connection has been reopened, false if the peer must be closed.
+	 */
+	private boolean reconnect(Transport lost) {
+		Connector connector;
+		long delay;
+		long maxDelay;
+		synchronized(this) {
+			connector = _connector;
+			delay = _reconnectDelay;
+			maxDelay = _maxReconnectDelay;
+		}
+		if(connector == null || _closed)
+			return false;
+		
+		connectionLost(lost);
+		while(!_closed) {
+			try {
+				Transport transport = connector.connect();
+				_log.log(Level.INFO, "Reconnected to " + transport.getRemoteAddress());
+				return resume(transport);
+			} catch (IOException e) {
+				long wait = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+				_log.log(Level.INFO, "Could not reconnect: " + e.getMessage() + ", next attempt in " + wait + "ms");
+				
+				// The requests kept for too long are not worth sending anymore
+				failPendingRequests(System.currentTimeMillis() - TIMEOUT_ASYNC, true);
+				synchronized(this) {
+					if(!_closed) {
+						try {
+							wait(wait); // Woken up by close()
+						} catch (InterruptedException ie) {
+							return false;
+						}
+					}
+				}
+				delay = Math.min(delay * 2, maxDelay);
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Releases what is related to a lost connection before reconnecting: the requests waiting for a response fail with
+	 * a Connection Closed error, unless they can be sent again, and the requests received are cancelled since they
+	 * cannot be answered anymore.
+	 * @param lost the transport of the lost connection.
+	 */
+	private void connectionLost(Transport lost) {
+		_reconnecting = true;
+		try {
+			lost.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+		failPendingRequests(Long.MAX_VALUE, false);
+		cancelRunningRequests();
+	}
+	
+	/**
+	 * Resumes the communication through the transport of a new connection: tells the other peer again that we can
+	 * decompress frames, and sends again the requests kept while reconnecting.
+	 * @param transport the transport of the new connection.
+	 * @return false if the peer has been closed in the meantime.
+	 */
+	private boolean resume(Transport transport) {
+		boolean advertise;
+		synchronized(this) {
+			if(_closed) {
+				try {
+					transport.close();
+				} catch (IOException e) {
+					// Already closed
+				}
+				return false;
+			}
+			
+			if(transport instanceof FramedTransport) {
+				((FramedTransport) transport).setMaxFrameSize(_maxFrameSize);
+			}
+			synchronized(_writeLock) {
+				_transport = transport;
+				// The other peer does not know us anymore
+				_remoteDecompresses = false;
+				advertise = _compressionAdvertised && _compressionThreshold > 0;
+				_lastReceived = System.currentTimeMillis();
+				_lastSent = _lastReceived;
+				_reconnecting = false;
+			}
+		}
+		
+		if(advertise) {
+			advertiseCompression();
+		}
+		
+		List<PendingRequest> pending;
+		synchronized(_pendingRequests) {
+			pending = new ArrayList<PendingRequest>(_pendingRequests);
+		}
+		for(PendingRequest pr : pending) {
+			JSONRPC2Request req = pr.getRequest();
+			if(req != null) {
+				pr.touch();
+				send("Request", req);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Sends heartbeats to the other peer, and closes the connection when the other peer stays silent: it may be
+	 * dead, or unreachable, without the connection being closed.
+	 * The heartbeats are "rpc.ping" notifications, only sent when nothing else has been sent during the interval.
+	 * The other peer should send heartbeats more often than the idle timeout (at least twice as often).
+	 * The connections of all the peers are checked by a single shared thread.
+	 * @param interval send a heartbeat after this time (in ms) without sending anything, 0 to send none.
+	 * @param idleTimeout close the connection after this time (in ms) without receiving anything, 0 to never close it.
+	 */
+	public synchronized void setHeartbeat(long interval, long idleTimeout) {
+		_heartbeatInterval = interval;
+		_idleTimeout = idleTimeout;
+		if(_heartbeat != null) {
+			_heartbeat.cancel(false);
+			_heartbeat = null;
+		}
+		if(_closed || (interval <= 0 && idleTimeout <= 0))
+			return;
+		
+		// Checking often enough to detect the idle connections in time
+		long period = interval > 0 ? interval : idleTimeout;
+		if(idleTimeout > 0) {
+			period = Math.min(period, Math.max(idleTimeout / 4, 1));
+		}
+		_heartbeat = getScheduler().scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				checkConnection();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Closes the connection if nothing has been received for too long, or sends a heartbeat if nothing has been
+	 * sent for long enough. Also drops the idle streams. Run periodically by the heartbeat scheduler.
+	 * The scheduler is shared by all the peers, so the connection is closed and the heartbeat written by the
+	 * background executor: a write blocked on a dead connection must not stop the checks of the other peers.
+	 */
+	private void checkConnection() {
+		if(_reconnecting || _closed)
+			return;
+		
+		cleanupResultStreams();
+		long now = System.currentTimeMillis();
+		final Transport transport = _transport;
+		if(_idleTimeout > 0 && now - _lastReceived > _idleTimeout) {
+			_log.log(Level.WARNING, "Nothing received from " + transport.getRemoteAddress() + " for "
+					+ (now - _lastReceived) + "ms, closing the connection");
+			// Closing the transport also unblocks a write stuck on the dead connection
+			getBackgroundExecutor().execute(new Runnable() {
+				public void run() {
+					dropConnection(transport);
+				}
+			});
+		} else if(_heartbeatInterval > 0 && now - _lastSent >= _heartbeatInterval && _pinging.compareAndSet(false, true)) {
+			// A single heartbeat at a time, they would only pile up behind a blocked write
+			getBackgroundExecutor().execute(new Runnable() {
+				public void run() {
+					try {
+						sendNotification(METHOD_PING, null);
+					} finally {
+						_pinging.set(false);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Returns the scheduler checking the connections of all the peers, creating it if needed.
+	 * It also runs the other short delayed tasks of the library (see LoadBalancedClient.setHedging).
+	 */
+	static ScheduledExecutorService getScheduler() {
+		synchronized(JJsonPeer.class) {
+			if(_scheduler == null) {
+				ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "JJsonPeer scheduler");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				// The checks of the closed peers, and the cancelled tasks, must not pile up
+				scheduler.setRemoveOnCancelPolicy(true);
+				_scheduler = scheduler;
+			}
+			return _scheduler;
+		}
+	}
+	
+	/**
+	 * Returns the executor running the work of the scheduled tasks that can block, such as writing to a connection,
+	 * creating it if needed. The scheduler thread is shared by all the peers, it must never wait.
+	 */
+	static Executor getBackgroundExecutor() {
+		synchronized(JJsonPeer.class) {
+			if(_backgroundExecutor == null) {
+				_backgroundExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "JJsonPeer background");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			return _backgroundExecutor;
+		}
+	}
+	
+	/**
+	 * Adds a listener notified when the connection of this peer is closed.
+	 * @param listener the listener.
+	 */
+	public void addDisconnectListener(DisconnectListener listener) {
+		_disconnectListeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener added with addDisconnectListener.
+	 * @param listener the listener.
+	 */
+	public void removeDisconnectListener(DisconnectListener listener) {
+		_disconnectListeners.remove(listener);
+	}
+	
+	/**
+	 * Returns true if the connection of this peer has been closed.
+	 */
+	public boolean isClosed() {
+		return _closed;
+	}
+	
+	/**
+	 * Returns true if the peer is connected to the other peer: it is not closed, nor reconnecting (see setReconnect).
+	 */
+	public boolean isConnected() {
+		return !_closed && !_reconnecting;
+	}
+	
+	/**
+	 * Closes the connection, and releases everything related to it: the requests waiting for a response fail with a
+	 * Connection Closed error (ERROR_CODE_CONNECTION_CLOSED), the requests received are cancelled since they cannot
+	 * be answered anymore, and the heartbeats stop. The disconnect listeners are then notified.
+	 * Called automatically when the connection is lost, unless the peer reconnects (see setReconnect).
+	 * Only the first call has an effect.
+	 */
+	public void close() {
+		synchronized(this) {
+			if(_closed)
+				return;
+			_closed = true;
+			if(_heartbeat != null) {
+				_heartbeat.cancel(false);
+				_heartbeat = null;
+			}
+			notifyAll(); // Stops waiting for the next reconnection attempt
+		}
+		
+		try {
+			_transport.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+		
+		failPendingRequests(Long.MAX_VALUE, true);
+		cancelRunningRequests();
+		
+		for(DisconnectListener listener : _disconnectListeners) {
+			listener.onDisconnect(this);
+		}
+	}
+	
+	/**
+	 * Fails the requests waiting for a response, as if the other peer had answered with a Connection Closed error.
+	 * @param before only fails the requests made (or last active) before this time.
+	 * @param replayable true to also fail the requests that could be sent again after a reconnection.
+	 */
+	private void failPendingRequests(long before, boolean replayable) {
+		List<PendingRequest> pending;
+		synchronized(_pendingRequests) {
+			pending = new ArrayList<PendingRequest>(_pendingRequests);
+		}
+		for(PendingRequest pr : pending) {
+			if(pr.getTime() < before && (replayable || pr.getRequest() == null)) {
+				failRequest(pr.getId());
+			}
+		}
+	}
+	
+	/**
+	 * Cancels the requests received from the other peer, and stops the streams, since nobody is waiting for them
+	 * anymore.
+	 */
+	private void cancelRunningRequests() {
+		for(RunningRequest running : _runningRequests.values()) {
+			running.cancel();
+			endRunningRequest(running);
+		}
+		_resultStreams.clear();
+	}
+	
+	/**
+	 * Fails a request made to the other peer with a Connection Closed error.
+	 * @param id the ID of the request.
+	 */
+	private void failRequest(long id) {
+		processResponse(new JSONRPC2Response(new JSONRPC2Error(ERROR_CODE_CONNECTION_CLOSED, "Connection Closed"), id));
+	}
+	
+	/**
+	 * Sets the executor running the requests received from the other peer, and the notifications calling API methods.
+	 * Responses and the notifications of the protocol itself are always processed by the reading thread.
+	 * Without executor, nothing is read while a request is executed, so the requests cannot be cancelled while their
+	 * method runs (see processCancelNotification).
+	 * @param executor the executor, null to run the requests in the reading thread (the default).
+	 */
+	public void setRequestExecutor(Executor executor) {
+		_requestExecutor = executor;
+	}
+	
+	/**
+	 * Returns the executor running the requests received, or null if they run in the reading thread.
+	 */
+	public Executor getRequestExecutor() {
+		return _requestExecutor;
+	}
+	
+	/**
+	 * Sets the factory creating the thread reading the incoming data. Must be called before start().
+	 * @param factory the thread factory, null for a platform thread (the default).
+	 */
+	public void setThreadFactory(ThreadFactory factory) {
+		_threadFactory = factory;
+	}
+	
+	/**
+	 * Runs the reading thread and every request received on virtual threads, so that API methods can block
+	 * without holding a platform thread. Must be called before start().
+	 * Virtual threads require Java 21: on older versions the reading thread stays a platform thread, and the requests
+	 * are run by a pool of platform threads (see VirtualThreads).
+	 * @param enabled true to use virtual threads, false to go back to a platform thread processing everything.
+	 */
+	public void setVirtualThreads(boolean enabled) {
+		setThreadFactory(enabled ? VirtualThreads.getFactory() : null);
+		setRequestExecutor(enabled ? VirtualThreads.getExecutor() : null);
+	}
+	
+	/**
+	 * Runs a request received, or a notification calling an API method, in the lane of its method (see Bulkhead).
+	 * @param task the processing of the request.
+	 * @param lane the lane.
+	 * @return false if the queue of the lane is full.
+	 */
+	private boolean runInLane(Runnable task, Lane lane) {
+		try {
+			lane.getExecutor().execute(task);
+			return true;
+		} catch(RejectedExecutionException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Runs a request received, or a notification calling an API method, with the request executor.
+	 * @param task the processing of the request.
+	 */
+	private void runRequest(Runnable task) {
+		Executor executor = _requestExecutor;
+		if(executor == null) {
+			task.run();
+			return;
+		}
+		try {
+			executor.execute(task);
+		} catch(RejectedExecutionException e) {
+			_log.log(Level.INFO, "Request rejected by the executor, running it in the reading thread");
+			task.run();
+		}
+	}
+	
+	/**
+	 * Processes an incomming frame from the transport: decompresses and parses it, and routes the message.
+	 * @param data the frame.
+	 */
+	private void routeIncomingData(String data) {
+		// Decompressing the frame if needed
+		if(FrameCompressor.isCompressed(data)) {
+			try {
+				data = _compressor.decompress(data, _maxFrameSize);
+			} catch(FrameTooLargeException e) {
+				_log.log(Level.WARNING, "Compressed frame larger than " + _maxFrameSize + " bytes discarded from "
+						+ _transport.getRemoteAddress());
+				sendErrorResponse(ERROR_CODE_FRAME_TOO_LARGE, "Frame Too Large");
+				return;
+			} catch(DataFormatException e) {
+				_log.log(Level.INFO, "The compressed data received cannot be decompressed");
+				sendErrorResponse(ERROR_CODE_PARSE_ERROR, "Parse Error");
+				return;
+			}
+		}
+		
+		// Parsing the JSON-RPC data, whatever the kind of message
+		JSONRPC2Message message;
+		try {
+			message = _parser.parse(data);
+		} catch(JSONRPC2ParseException e) {
+			_log.log(Level.INFO, "The data received cannot be parsed : " + data);
+			sendErrorResponse(ERROR_CODE_PARSE_ERROR, "Parse Error");
+			return;
+		}
+		routeIncomingMessage(message);
+	}
+	
+	/**
+	 * Routes an incomming message to the appropriate methods for processing, depending on its kind.
+	 * @param message the request, response or notification received.
+	 */
+	private void routeIncomingMessage(JSONRPC2Message message) {
+		if(message instanceof JSONRPC2Request) {
+			final JSONRPC2Request req = (JSONRPC2Request) message;
+			// Registered before being queued, so that it can be cancelled while waiting for the executor
+			final RunningRequest running = registerRunningRequest(req);
+			if(running != null && !admit(running)) {
+				return;
+			}
+			Runnable task = new Runnable() {
+				public void run() {
+					try {
+						processRequest(req, running);
+					} finally {
+						if(running != null && !running.isAsync()) {
+							endRunningRequest(running);
+						}
+					}
+				}
+			};
+			
+			// Routing the request to the lane of its method, if it has one
+			Lane lane = _api.getLane(req.getMethod());
+			if(lane == null) {
+				runRequest(task);
+			} else if(!runInLane(task, lane)) {
+				if(running != null) {
+					reject(running, _admission);
+				} else {
+					sendErrorResponse(ERROR_CODE_OVERLOADED, "Server Overloaded");
+				}
+			}
+		} else if(message instanceof JSONRPC2Response) {
+			processResponse((JSONRPC2Response) message);
+		} else if(message instanceof JSONRPC2Notification) {
+			final JSONRPC2Notification not = (JSONRPC2Notification) message;
+			Lane lane = _api.getLane(not.getMethod());
+			Runnable task = new Runnable() {
+				public void run() {
+					processNotification(not);
+				}
+			};
+			if(not.getMethod().startsWith(RESERVED_METHOD_PREFIX)) {
+				processNotification(not);
+			} else if(lane == null) {
+				runRequest(task);
+			} else if(!runInLane(task, lane)) {
+				_log.log(Level.INFO, "Notification dropped, lane " + lane.getName() + " full");
+			}
+		}
+	}
+	
+	/**
+	 * Locates the API method called by a request or a notification, and casts the parameters to its types.
+	 * The parameters can be given by position (a List) or by name (a Map, bound to the parameters of the method
+	 * with its precomputed table of names, see ApiMethod.bindNamedParams).
+	 * @param method the name of the method.
+	 * @param argsObj the parameters, as parsed.
+	 * @return the method to call and its parameters.
+	 * @throws JSONRPC2Error if the parameters are not valid, or if no method can be called with them.
+	 */
+	private CallKey resolveCall(String method, Object argsObj) throws JSONRPC2Error {
+		Object[] params;
+		ApiMethod m;
+		if(argsObj == null) { // Support for null params
+			params = new Object[0];
+			m = _api.getCompatibleMethod(method, params);
+		} else if(argsObj instanceof List) {
+			params = ((List<?>) argsObj).toArray();
+			m = _api.getCompatibleMethod(method, params);
+		} else if(argsObj instanceof Map) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> namedParams = (Map<String, Object>) argsObj;
+			CallKey bound = _api.getCompatibleCall(method, namedParams);
+			m = bound == null ? null : bound.getMethod();
+			params = bound == null ? null : bound.getParams();
+		} else {
+			_log.log(Level.INFO, "Invalid Request: Cannot retrieve params");
+			throw new JSONRPC2Error(ERROR_CODE_INVALID_REQUEST, "Invalid Request");
+		}
+		
+		if(m == null) {
+			_log.log(Level.INFO, "Method not found : " + method);
+			throw new JSONRPC2Error(ERROR_CODE_METHOD_NOT_FOUND, "Method Not Found");
+		}
+		
+		Object[] args = Helper.castParameters(params, m.getParameterTypes());
+		if(args == null) {
+			// The parameters cannot be cast to the types of the method
+			throw new JSONRPC2Error(ERROR_CODE_INVALID_PARAMS, "Invalid params");
+		}
+		return new CallKey(m, args);
+	}
+	
+	/**
+	 * Processes a received request. Parses it, executes the call and returns the response.
+	 * If something wrong happens during the processing, an error response will be sent.
+	 * 
+	 * @param req the received request.
+	 */
+	private void processRequest(JSONRPC2Request req, RunningRequest running) {
+		String method = req.getMethod();
+		Object argsObj = req.getParams();
+		Object idObj = req.getID();
+		long id = 0;
+		try {
+			id = Integer.valueOf(String.valueOf(idObj));
+		} catch (NumberFormatException e) {
+			// Wrong request, sending error
+			_log.log(Level.INFO, "Invalid Request: Cannot retrieve ID");
+			sendErrorResponse(ERROR_CODE_INVALID_REQUEST, "Invalid Request");
+			return;
+		}
+		
+		if(running != null && running.isCancelled()) {
+			// Cancelled before being executed
+			return;
+		} else if(running != null && running.isExpired()) {
+			// The other peer has stopped waiting while the request was queued
+			sendErrorResponse(ERROR_CODE_DEADLINE_EXCEEDED, "Deadline Exceeded", id);
+			return;
+		}
+		
+		AdmissionControl admission = _admission;
+		if(running != null && admission != null && admission.shouldShed(running.getReceivedTime())) {
+			// The request has been queued for too long
+			reject(running, admission);
+			return;
+		}
+		
+		// Locating and executing the method statically
+		CallKey call;
+		try {
+			call = resolveCall(method, argsObj);
+		} catch (JSONRPC2Error e) {
+			sendErrorResponse(e.getCode(), e.getMessage(), id);
+			return;
+		}
+		
+		if(running != null && running.isExpired()) {
+			sendErrorResponse(ERROR_CODE_DEADLINE_EXCEEDED, "Deadline Exceeded", id);
+			return;
+		}
+		
+		Object methodResponse = null;
+		try {
+			ResultCache cache = call.getMethod().getCache();
+			if(cache == null) {
+				methodResponse = invokeMethod(call, running);
+			} else {
+				// Looking for a cached result before invoking the method
+				ResultCache.Entry entry = cache.get(call);
+				if(entry == null) {
+					methodResponse = invokeMethod(call, running);
+					// The results of asynchronous methods are cached once they are available
+					if(!(methodResponse instanceof Iterator) && !(methodResponse instanceof CompletionStage)) {
+						entry = cache.put(call, methodResponse);
+					}
+				}
+				
+				if(entry != null) {
+					if(cache.isPreserialized()) {
+						sendCachedResponse(id, entry);
+						return;
+					}
+					methodResponse = entry.getResult();
+				}
+			}
+		} catch (SecurityException e) {
+			// A Security Manager prevents the access to this method
+			// Sending Error Response
+			sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", id);
+			return;
+		} catch (IllegalArgumentException e) {
+			// The method was called with the wrong number/types of arguments
+			sendErrorResponse(ERROR_CODE_INVALID_PARAMS, "Invalid params", id);
+			return;
+		} catch (IllegalAccessException e) {
+			// Java Language Access prevented the invocation of this method
+			// Sending Error Response
+			sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", id);
+			return;
+		} catch (InvocationTargetException e) {
+			// The method has thrown an exception
+			if(running != null && running.isCancelled()) {
+				// Probably because it has been interrupted, nobody is waiting for the response
+				return;
+			}
+			// Sending Error Response
+			sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", id);
+			return;
+		}
+		
+		// Send Response
+		if(running != null && running.isCancelled()) {
+			return;
+		} else if(methodResponse instanceof Iterator) {
+			startResultStream(id, (Iterator<?>) methodResponse);
+		} else if(methodResponse instanceof CompletionStage) {
+			sendResponseOnCompletion(id, call, (CompletionStage<?>) methodResponse, running);
+		} else {
+			sendResponse(id, methodResponse);
+		}
+	}
+	
+	/**
+	 * Sends the response of a request once the CompletionStage returned by its method completes, without blocking
+	 * any thread in the meantime. The result is then handled like the value returned by a synchronous method:
+	 * it is cached if the method is Cacheable, and streamed if it is an Iterator.
+	 * @param id the ID of the request.
+	 * @param call the method called and its parameters.
+	 * @param stage the CompletionStage returned by the method.
+	 * @param running the request, to cancel the CompletionStage if the other peer cancels it. Can be null.
+	 */
+	private void sendResponseOnCompletion(final long id, final CallKey call, CompletionStage<?> stage,
+			final RunningRequest running) {
+		if(running != null && call.getMethod().getInFlightCalls() == null) {
+			running.setStage(stage);
+		} else if(running != null) {
+			// A SingleFlight CompletionStage is shared with other requests, it is never cancelled, but the request is
+			// still running (and can be cancelled) until it completes
+			running.setAsync();
+		}
+		stage.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object result, Throwable error) {
+				endRunningRequest(running);
+				if(running != null && running.isCancelled()) {
+					return;
+				}
+				
+				if(error != null) {
+					// The method has completed exceptionally
+					sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", id);
+					return;
+				}
+				
+				if(result instanceof Iterator) {
+					startResultStream(id, (Iterator<?>) result);
+					return;
+				}
+				
+				try {
+					ResultCache cache = call.getMethod().getCache();
+					if(cache != null) {
+						ResultCache.Entry entry = cache.put(call, result);
+						if(cache.isPreserialized()) {
+							sendCachedResponse(id, entry);
+							return;
+						}
+					}
+					sendResponse(id, result);
+				} catch(IllegalArgumentException e) {
+					// The result cannot be written in JSON
+					_log.log(Level.WARNING, "Invalid result for " + call.getMethod().getName() + ": " + e.getMessage());
+					sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", id);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Invokes an API method, or waits for the result of an identical call if the method is SingleFlight.
+	 * The method can be interrupted if the request is cancelled, unless it is SingleFlight (the execution is shared
+	 * with the other identical requests).
+	 * @param call the method and its parameters, already cast.
+	 * @param running the request executing the method, null if it cannot be cancelled.
+	 * @return the value returned by the method.
+	 * @throws IllegalAccessException if Java Language Access prevents the invocation of this method.
+	 * @throws IllegalArgumentException if the parameters are not valid for this method.
+	 * @throws InvocationTargetException if the method has thrown an exception.
+	 */
+	private Object invokeMethod(CallKey call, RunningRequest running) throws IllegalAccessException, InvocationTargetException {
+		InFlightCalls inFlight = call.getMethod().getInFlightCalls();
+		if(inFlight != null) {
+			return inFlight.execute(call);
+		}
+		
+		if(running == null) {
+			return call.getMethod().invoke(call.getParams());
+		}
+		if(!running.allowInterrupt()) {
+			throw new InvocationTargetException(new InterruptedException("Request cancelled"));
+		}
+		try {
+			return call.getMethod().invoke(call.getParams());
+		} finally {
+			running.finish();
+		}
+	}
+	
+	/**
+	 * Starts streaming the items of an Iterator returned by a method, as the result of the given request.
+	 * The first STREAM_INITIAL_CREDITS chunks are sent right away, the next ones when the other peer asks for them.
+	 * The request is rejected if a stream with the same ID is still in progress.
+	 * @param id the ID of the request.
+	 * @param iterator the Iterator returned by the method.
+	 */
+	private void startResultStream(long id, Iterator<?> iterator) {
+		cleanupResultStreams();
+		ResultStream stream = new ResultStream(id, iterator, STREAM_INITIAL_CREDITS);
+		if(_resultStreams.putIfAbsent(id, stream) != null) {
+			// The chunks of both streams would be mixed up
+			_log.log(Level.WARNING, "Stream " + id + " already in progress, request rejected");
+			sendErrorResponse(ERROR_CODE_INVALID_REQUEST, "Request ID already in use", id);
+			return;
+		}
+		pumpResultStream(stream);
+	}
+	
+	/**
+	 * Removes the streams that have not received any credit for STREAM_IDLE_TIMEOUT, so that the Iterators of the
+	 * streams abandoned by the other peer are not kept until the connection closes.
+	 * Thread-safe.
+	 */
+	private void cleanupResultStreams() {
+		long time = System.currentTimeMillis();
+		synchronized(_resultStreams) {
+			for(Iterator<ResultStream> it = _resultStreams.values().iterator(); it.hasNext();) {
+				ResultStream stream = it.next();
+				if(stream.getLastActivity() + STREAM_IDLE_TIMEOUT < time) {
+					_log.log(Level.INFO, "Stream " + stream.getId() + " idle for too long, dropped");
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sends as many chunks of a stream as its credits allow. Once the Iterator is exhausted, sends the final
+	 * response, containing the number of items streamed.
+	 * Thread-safe.
+	 * @param stream the stream.
+	 */
+	private void pumpResultStream(ResultStream stream) {
+		synchronized(stream) {
+			try {
+				while(stream.canSend()) {
+					List<Object> args = new ArrayList<Object>(2);
+					args.add(stream.getId());
+					args.add(stream.nextChunk(STREAM_CHUNK_SIZE));
+					sendNotification(METHOD_CHUNK, args);
+				}
+				
+				if(stream.isExhausted() && _resultStreams.remove(stream.getId()) != null) {
+					sendResponse(stream.getId(), stream.getCount());
+				}
+			} catch(RuntimeException e) {
+				// The Iterator has thrown an exception, the stream is over.
+				if(_resultStreams.remove(stream.getId()) != null) {
+					sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", stream.getId());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Processes a credit notification: the other peer is ready to receive more chunks of a stream.
+	 * @param argsObj the parameters of the notification: the ID of the request and the number of chunks.
+	 */
+	private void processCreditNotification(Object argsObj) {
+		if(!(argsObj instanceof List) || ((List<?>) argsObj).size() != 2)
+			return;
+		
+		List<?> args = (List<?>) argsObj;
+		if(!(args.get(0) instanceof Number) || !(args.get(1) instanceof Number))
+			return;
+		
+		ResultStream stream = _resultStreams.get(((Number) args.get(0)).longValue());
+		if(stream != null) {
+			synchronized(stream) {
+				stream.addCredits(((Number) args.get(1)).intValue());
+			}
+			pumpResultStream(stream);
+		}
+	}
+	
+	/**
+	 * Processes a chunk notification: gives the items to the handler of the stream, then asks for the next chunk.
+	 * @param argsObj the parameters of the notification: the ID of the request and the items.
+	 */
+	private void processChunkNotification(Object argsObj) {
+		if(!(argsObj instanceof List) || ((List<?>) argsObj).size() != 2)
+			return;
+		
+		List<?> args = (List<?>) argsObj;
+		if(!(args.get(0) instanceof Number) || !(args.get(1) instanceof List))
+			return;
+		
+		long id = ((Number) args.get(0)).longValue();
+		PendingRequest pr = getPendingRequest(id);
+		if(pr instanceof StreamPendingRequest) {
+			pr.touch();
+			@SuppressWarnings("unchecked")
+			List<Object> items = (List<Object>) args.get(1);
+			((StreamPendingRequest) pr).getHandler().onChunk(items);
+			
+			List<Object> credit = new ArrayList<Object>(2);
+			credit.add(id);
+			credit.add(1);
+			sendNotification(METHOD_CREDIT, credit);
+		}
+	}
+	
+	/**
+	 * Processes a cancel notification: the other peer is not interested in the response of one of its requests
+	 * anymore. The method executing it is interrupted or its future cancelled (see RunningRequest), a stream is
+	 * stopped, and no response is sent.
+	 * The notification is read by the reading thread, so the methods run in it (the default, without request
+	 * executor nor lane) have already been answered when it arrives, and it has no effect on them.
+	 * @param argsObj the parameters of the notification: the ID of the request.
+	 */
+	private void processCancelNotification(Object argsObj) {
+		if(!(argsObj instanceof List) || ((List<?>) argsObj).size() != 1 || !(((List<?>) argsObj).get(0) instanceof Number))
+			return;
+		
+		long id = ((Number) ((List<?>) argsObj).get(0)).longValue();
+		// Forgotten once the method returns (see endRunningRequest)
+		RunningRequest running = _runningRequests.get(id);
+		if(running != null) {
+			_log.log(Level.INFO, "Request " + id + " cancelled by the other peer");
+			running.cancel();
+		}
+		
+		ResultStream stream = _resultStreams.remove(id);
+		if(stream != null) {
+			_log.log(Level.INFO, "Stream " + id + " cancelled by the other peer");
+		}
 	}
 	
 	/**
-	 * Removes the expired Pending Requests from the list (older than TIMEOUT_ASYNC)
-	 * Thread-safe.
+	 * Registers a request received from the other peer, so that it can be cancelled until it is answered.
+	 * If the other peer has sent its timeout, the request expires when it is over.
+	 * @param req the request.
+	 * @return the running request, or null if the ID is not valid.
 	 */
-	private void cleanupPendingRequests() {
-		synchronized(_pendingRequests) {
-			long time = System.currentTimeMillis();
-			for(int i = 0; i < _pendingRequests.size(); i++) {
-				if(_pendingRequests.get(i).getTime() + TIMEOUT_ASYNC < time) {
-					_pendingRequests.remove(i);
-				}
-			}
+	private RunningRequest registerRunningRequest(JSONRPC2Request req) {
+		long id;
+		try {
+			id = Integer.valueOf(String.valueOf(req.getID()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		
+		long deadline = 0;
+		Object timeout = req.getNonStdAttribute(ATTRIBUTE_TIMEOUT);
+		if(timeout instanceof Number && ((Number) timeout).longValue() > 0) {
+			deadline = System.currentTimeMillis() + ((Number) timeout).longValue();
 		}
+		
+		RunningRequest running = new RunningRequest(id, deadline);
+		_runningRequests.put(id, running);
+		return running;
 	}
 	
 	/**
-	 * Builds a cache of methods available for fast lookup when looking for compatible methods.
-	 * @throws ClassNotFoundException if the _apiClass is not a valid class.
+	 * Forgets a request received from the other peer, once it has been answered (or cancelled).
+	 * @param running the request, can be null.
 	 */
-	private void buildMethodsCache() {
-		_methodsCache = new Hashtable<String, Set<Method>>();
-		Method[] methods = _apiClass.getMethods();
-		for(Method m : methods) {
-			if(_methodsCache.containsKey(m.getName())) {
-				_methodsCache.get(m.getName()).add(m);
-			} else {
-				Set<Method> s = new HashSet<Method>();
-				s.add(m);
-				_methodsCache.put(m.getName(), s);
-			}
+	private void endRunningRequest(RunningRequest running) {
+		if(running != null) {
+			_runningRequests.remove(running.getId(), running);
+			running.end();
 		}
 	}
 	
 	/**
-	 * Returns the first method with the provided name and compatible parameters.
-	 * Returns null if no methods match.
-	 * @param name The name of the method.
-	 * @param params An array containing the parameters of the method.
+	 * Decides if a request received can be executed (see setAdmissionControl), and answers it with a Server
+	 * Overloaded error otherwise.
+	 * @param running the request, already registered.
+	 * @return true if the request can be executed.
 	 */
-	private Method getCompatibleMethods(String name, Object[] params) {
-		Set<Method> methods = _methodsCache.get(name);
-		
-		if(methods == null)
-			return null;
+	private boolean admit(RunningRequest running) {
+		AdmissionControl admission = _admission;
+		if(admission == null)
+			return true;
 		
-		for(Method candidate : methods) {
-			if(Helper.areCompatible(params, candidate.getParameterTypes())) {
-				return candidate;
-			}
+		TokenBucket bucket = _tokenBucket;
+		if(bucket != null && !bucket.tryAcquire()) {
+			reject(running, admission);
+			return false;
+		} else if(!admission.tryAcquire()) {
+			reject(running, admission);
+			return false;
 		}
-		
-		return null;
+		running.setAdmission(admission);
+		return true;
 	}
-
+	
 	/**
-	 * Thread onStart event. Listening for incoming data through the socket.
+	 * Answers a request with a Server Overloaded error, without executing it.
+	 * @param running the request.
+	 * @param admission the admission control to count the rejection, can be null.
 	 */
-	public void run() {
-		try {
-			_log.log(Level.INFO, "JJSON Peer listening...");
-			while(true){
-				int b;
-				StringBuffer sb = new StringBuffer();
-				if(_in.available() != 0) {
-					// New data incoming, reading
-					while ((b = _in.read()) != END_OF_MESSAGE_CHAR) {
-					     sb.append((char) b);
-					}
-					String data = sb.toString();
-					//_log.log(Level.INFO, "Peer on port:" + _socket.getPort() + " said: " + data);
-					// Process data
-					routeIncomingData(data);
-				}
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
+	private void reject(RunningRequest running, AdmissionControl admission) {
+		_log.log(Level.INFO, "Request " + running.getId() + " rejected, server overloaded");
+		if(admission != null) {
+			admission.rejected();
 		}
+		endRunningRequest(running);
+		sendErrorResponse(ERROR_CODE_OVERLOADED, "Server Overloaded", running.getId());
 	}
 	
 	/**
-	 * Processes an incomming message from the InputStream. Tries to determine which kind of
-	 * message it is, and route it to the appropriate methods for processing.
-	 * @param data
+	 * Sets the admission control of the requests received from the other peer, usually shared with other peers
+	 * (see TcpServer.setAdmissionControl). The rejected requests are answered with a Server Overloaded error
+	 * (ERROR_CODE_OVERLOADED).
+	 * @param admission the admission control, null to accept all the requests.
 	 */
-	private void routeIncomingData(String data) {
-		// Parsing the JSON-RPC data
-		try {
-			JSONRPC2Request req = JSONRPC2Request.parse(data);
-			processRequest(req);
-		} catch(JSONRPC2ParseException e) {
-			// Data received is not a valid JSON-RPC Request, trying to parse it to a Response
-			try {
-				JSONRPC2Response rep = JSONRPC2Response.parse(data);
-				processResponse(rep);
-			} catch(JSONRPC2ParseException e2) {
-				// Data received is not a valid JSON-RPC Response, trying to parse it to a Notification
-				try {
-					JSONRPC2Notification not = JSONRPC2Notification.parse(data);
-					processNotification(not);
-				} catch(JSONRPC2ParseException e3) {
-					// Data received is not a valid JSON-RPC Notification, sending an error response.
-					_log.log(Level.INFO, "The data received cannot be parsed : " + data);
-					sendErrorResponse(ERROR_CODE_PARSE_ERROR, "Parse Error");
-				}
-			}
-			return;
-		}
+	public void setAdmissionControl(AdmissionControl admission) {
+		_tokenBucket = admission == null ? null : admission.newTokenBucket();
+		_admission = admission;
 	}
 	
 	/**
-	 * Processes a received request. Parses it, executes the call and returns the response.
-	 * If something wrong happens during the processing, an error response will be sent.
-	 * 
-	 * @param req the received request.
+	 * Sets the maximum size of the frames received, FramedTransport.DEFAULT_MAX_FRAME_SIZE by default. The larger
+	 * frames are discarded while they are read, without being buffered, and answered with a Frame Too Large error
+	 * (ERROR_CODE_FRAME_TOO_LARGE) without ID, since the request has not been parsed. The compressed frames are also
+	 * discarded if they decompress beyond this size.
+	 * Must be called before start().
+	 * @param size the maximum size of a frame, in bytes (encoded in UTF-8), 0 for no limit.
 	 */
-	private void processRequest(JSONRPC2Request req) {
-		String method = req.getMethod();
-		Object argsObj = req.getParams();
-		Object idObj = req.getID();
-		long id = 0;
-		try {
-			id = Integer.valueOf(String.valueOf(idObj));
-		} catch (NumberFormatException e) {
-			// Wrong request, sending error
-			_log.log(Level.INFO, "Invalid Request: Cannot retrieve ID");
-			sendErrorResponse(ERROR_CODE_INVALID_REQUEST, "Invalid Request");
-			return;
-		}
-		
-		Object[] params = null;
-		Class<?>[] paramsTypes = null;
-		if(argsObj == null) { // Support for null params
-			params = new Object[0];
-			paramsTypes = new Class<?>[0];
-		} else if(argsObj instanceof List) {
-			@SuppressWarnings("unchecked")
-			List<Object> argsList = (List<Object>) argsObj;
-			params = new Object[argsList.size()];
-			paramsTypes = new Class<?>[argsList.size()];
-			int i = 0;
-			for(Object o : argsList) {
-				params[i] = o;
-				paramsTypes[i++] = o.getClass();
-			}
-		} else {
-			// Wrong request, sending error
-			_log.log(Level.INFO, "Invalid Request: Cannot retrieve List params");
-			sendErrorResponse(ERROR_CODE_INVALID_REQUEST, "Invalid Request", id);
-			return;
-		}
-		
-		// Locating and executing the method statically
-		Object methodResponse = null;
-		try {
-			Method m = getCompatibleMethods(method, params);
-			if(m == null) {
-				// Called wrong method, sending Error Response
-				sendErrorResponse(ERROR_CODE_METHOD_NOT_FOUND, "Method Not Found", id);
-				return;
-			}
-			methodResponse = m.invoke(null, Helper.castParameters(params, m));
-		} catch (SecurityException e) {
-			// A Security Manager prevents the access to this method
-			// Sending Error Response
-			sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", id);
-			return;
-		} catch (IllegalArgumentException e) {
-			// The method was called with the wrong number/types of arguments
-			sendErrorResponse(ERROR_CODE_INVALID_PARAMS, "Invalid params", id);
-			return;
-		} catch (IllegalAccessException e) {
-			// Java Language Access prevented the invocation of this method
-			// Sending Error Response
-			sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", id);
-			return;
-		} catch (InvocationTargetException e) {
-			// The method has thrown an exception
-			// Sending Error Response
-			sendErrorResponse(ERROR_CODE_SERVER_ERROR, "Server Error", id);
-			return;
+	public void setMaxFrameSize(int size) {
+		_maxFrameSize = size;
+		if(_transport instanceof FramedTransport) {
+			((FramedTransport) _transport).setMaxFrameSize(size);
 		}
-		
-		// Send Response
-		sendResponse(id, methodResponse);
 	}
 	
 	/**
@@ -337,38 +1560,34 @@ public class JJsonPeer extends Thread {
 		String method = not.getMethod();
 		Object argsObj = not.getParams();
 		
-		Object[] params = null;
-		Class<?>[] paramsTypes = null;
-		if(argsObj == null) {
-			// Support for null params
-			params = new Object[0];
-			paramsTypes = new Class<?>[0];
-		} else if(argsObj instanceof List) {
-			@SuppressWarnings("unchecked")
-			List<Object> argsList = (List<Object>) argsObj;
-			params = new Object[argsList.size()];
-			paramsTypes = new Class<?>[argsList.size()];
-			int i = 0;
-			for(Object o : argsList) {
-				params[i] = o;
-				paramsTypes[i++] = o.getClass();
-			}
-		} else {
-			// Wrong request, ignoring
-			_log.log(Level.INFO, "Invalid Request: Cannot retrieve List params");
+		if(METHOD_COMPRESSION.equals(method)) {
+			processCompressionNotification(argsObj);
+			return;
+		} else if(METHOD_CHUNK.equals(method)) {
+			processChunkNotification(argsObj);
+			return;
+		} else if(METHOD_CREDIT.equals(method)) {
+			processCreditNotification(argsObj);
+			return;
+		} else if(METHOD_CANCEL.equals(method)) {
+			processCancelNotification(argsObj);
+			return;
+		} else if(METHOD_PING.equals(method)) {
+			// Nothing to do, receiving it is enough
 			return;
 		}
 		
 		// Locating and executing the method statically
-		Method m = getCompatibleMethods(method, params);
-		if(m == null) {
-			// Called wrong method, ignoring
-			_log.log(Level.INFO, "Method not found : " + method);
+		CallKey call;
+		try {
+			call = resolveCall(method, argsObj);
+		} catch (JSONRPC2Error e) {
+			// Wrong notification, ignoring
 			return;
 		}
 		
 		try {
-			m.invoke(null, Helper.castParameters(params, m));
+			call.getMethod().invoke(call.getParams());
 		} catch (SecurityException e) {
 			// A Security Manager prevented the access to this method
 			_log.log(Level.INFO, "A Security Manager prevented the access to this method");
@@ -406,40 +1625,132 @@ public class JJsonPeer extends Thread {
 		// Retrieve the error if there was one
 		JSONRPC2Error error = resp.getError();
 		
+		// Retrieving the request, and removing it from the list unless a thread is waiting for it.
+		PendingRequest pr;
 		synchronized(_pendingRequests) {
-			PendingRequest pr = getPendingRequest(id);
-			if(pr != null) {
-				if(pr instanceof WaitingPendingRequest) {
-					// It is a waiting request, update the result or error field.
-					if(error == null) {
-						((WaitingPendingRequest) pr).setResult(resp.getResult());
-					} else {
-						RemoteError re = new RemoteError(error.getCode(), error.getMessage(), error.getData());
-						((WaitingPendingRequest) pr).setError(re);
-					}
-				} else if(pr instanceof CallbackPendingRequest){
-					// It is a non waiting request, call the callback method
-					CallbackMethod callback = ((CallbackPendingRequest) pr).getCallback();
-					if(error == null) {
-						callback.run(resp.getResult());
+			pr = getPendingRequest(id);
+			if(pr != null && !(pr instanceof WaitingPendingRequest)) {
+				removeRequest(id);
+			}
+		}
+		
+		if(pr instanceof WaitingPendingRequest) {
+			// It is a waiting request, update the result or error field.
+			if(error == null) {
+				((WaitingPendingRequest) pr).setResult(resp.getResult());
+			} else {
+				RemoteError re = new RemoteError(error.getCode(), error.getMessage(), error.getData());
+				((WaitingPendingRequest) pr).setError(re);
+			}
+		} else if(pr instanceof CallbackPendingRequest){
+			// It is a non waiting request, call the callback method in an other thread
+			CallbackPendingRequest cpr = (CallbackPendingRequest) pr;
+			Object result = error == null ? resp.getResult() 
+					: new RemoteError(error.getCode(), error.getMessage(), error.getData());
+			runCallback(cpr.getCallback(), result, cpr.getExecutor());
+		} else if(pr instanceof FuturePendingRequest) {
+			// It is a future, complete it in an other thread
+			final CompletableFuture<Object> future = ((FuturePendingRequest) pr).getFuture();
+			final Object result = resp.getResult();
+			final RemoteError re = error == null ? null 
+					: new RemoteError(error.getCode(), error.getMessage(), error.getData());
+			execute(new Runnable() {
+				public void run() {
+					if(re == null) {
+						future.complete(result);
 					} else {
-						RemoteError re = new RemoteError(error.getCode(), error.getMessage(), error.getData());
-						callback.run(re);
+						future.completeExceptionally(new RemoteCallException(re));
 					}
-					// Remove the request from the pending list.
-					removeRequest(id);
 				}
+			}, ((FuturePendingRequest) pr).getExecutor());
+		} else if(pr instanceof StreamPendingRequest) {
+			// It is a stream, all the chunks have been received
+			StreamHandler handler = ((StreamPendingRequest) pr).getHandler();
+			if(error == null) {
+				Object count = resp.getResult();
+				handler.onComplete(count instanceof Number ? ((Number) count).longValue() : 0);
+			} else {
+				handler.onError(new RemoteError(error.getCode(), error.getMessage(), error.getData()));
+			}
+		}
+	}
+	
+	/**
+	 * Runs a callback method with the response of a request, using the given executor, or the callback executor
+	 * of the peer if it is null. If the executor rejects the callback, it is run in the current thread.
+	 * @param callback the callback method.
+	 * @param response the result of the request, or a RemoteError.
+	 * @param executor the executor to run the callback with, may be null.
+	 */
+	private void runCallback(final CallbackMethod callback, final Object response, Executor executor) {
+		execute(new Runnable() {
+			public void run() {
+				callback.run(response);
+			}
+		}, executor);
+	}
+	
+	/**
+	 * Runs a task with the given executor, or the callback executor of the peer if it is null.
+	 * If the executor rejects the task, it is run in the current thread.
+	 * @param task the task.
+	 * @param executor the executor to run the task with, may be null.
+	 */
+	private void execute(Runnable task, Executor executor) {
+		try {
+			(executor != null ? executor : getCallbackExecutor()).execute(task);
+		} catch(RejectedExecutionException e) {
+			_log.log(Level.INFO, "Callback rejected by the executor, running it in the reading thread");
+			task.run();
+		}
+	}
+	
+	/**
+	 * Sets the executor used to run the callback methods of the asynchronous requests that were sent without one.
+	 * By default, the callbacks of all the peers run in a shared pool of daemon threads.
+	 * @param executor the executor, or null to use the default one.
+	 */
+	public void setCallbackExecutor(Executor executor) {
+		_callbackExecutor = executor;
+	}
+	
+	/**
+	 * Returns the executor used to run the callback methods, creating the default one if needed.
+	 */
+	private Executor getCallbackExecutor() {
+		Executor executor = _callbackExecutor;
+		if(executor != null)
+			return executor;
+		
+		synchronized(JJsonPeer.class) {
+			if(_defaultCallbackExecutor == null) {
+				_defaultCallbackExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "JJsonPeer callback");
+						t.setDaemon(true);
+						return t;
+					}
+				});
 			}
+			return _defaultCallbackExecutor;
 		}
 	}
 	
 	
 	/**
 	 * Returns the Socket through which this peer communicates.
-	 * @return the Socket of this peer.
+	 * @return the Socket of this peer, or null if it does not communicate through TCP.
 	 */
 	public Socket getSocket() {
-		return _socket;
+		return _transport instanceof SocketTransport ? ((SocketTransport) _transport).getSocket() : null;
+	}
+	
+	/**
+	 * Returns the transport through which this peer communicates.
+	 * @return the Transport of this peer.
+	 */
+	public Transport getTransport() {
+		return _transport;
 	}
 	
 	/**
@@ -451,29 +1762,22 @@ public class JJsonPeer extends Thread {
 	 */
 	public Object sendSyncRequest(String methodName, List<Object> args, boolean forceWait) {
 		// Registers a waiting pending request (no callback)
-		long id = registerRequest(null);
+		long id = registerRequest(null, null);
 		// Handling list full
 		if(id == -1) {
 			cleanupPendingRequests();
-			id = registerRequest(null);
+			id = registerRequest(null, null);
 			if(forceWait) {
 				while(id == -1) {
 					cleanupPendingRequests();
-					id = registerRequest(null);
+					id = registerRequest(null, null);
 				}
 			} else {
 				return null;
 			}
 		}
 		
-		JSONRPC2Request req = new JSONRPC2Request(methodName, args, id);
-		String s = req.toString();
-		
-		_log.log(Level.INFO, "Sending request:" + s);
-		synchronized(_out) {
-			_out.println(s);
-			_out.flush();
-		}
+		writeRequest(methodName, args, id, TIMEOUT_SYNC);
 		
 		return waitForResponse(id);
 	}
@@ -482,6 +1786,8 @@ public class JJsonPeer extends Thread {
 	 * Formats a JSON-RPC 2.0 request, gives it an ID, sends it through the Socket and registers the callback
 	 * to be notified when the response will arrive.
 	 * It should not be used to make a call of which you don't want the response. In this case, use sendNotification.
+	 * The callback is run by the callback executor of the peer (see setCallbackExecutor), never by the thread
+	 * reading the socket.
 	 * This call does not block the current thread.
 	 * Thread-safe.
 	 * @param methodName the name of the method to execute on the remote server.
@@ -492,33 +1798,197 @@ public class JJsonPeer extends Thread {
 	 * @return True if the request was sent successfully, false else (if the pending request list was full)
 	 */
 	public boolean sendAsyncRequest(String methodName, List<Object> args, CallbackMethod callback, boolean forceWait) {
-		long id = registerRequest(callback);
+		return sendAsyncRequest(methodName, args, callback, null, forceWait);
+	}
+	
+	/**
+	 * Formats a JSON-RPC 2.0 request, gives it an ID, sends it through the Socket and registers the callback
+	 * to be run by the given executor when the response will arrive.
+	 * This call does not block the current thread.
+	 * Thread-safe.
+	 * @param methodName the name of the method to execute on the remote server.
+	 * @param args a List of arguments to execute the method with.
+	 * @param callback The callback method to send the response to.
+	 * @param executor the executor to run the callback with. If null, the callback executor of the peer will be used.
+	 * @param forceWait if the list of pending requests is full, and this is set to true, blocks the thread and retries until
+	 * this request can be sent.
+	 * @return True if the request was sent successfully, false else (if the pending request list was full)
+	 */
+	public boolean sendAsyncRequest(String methodName, List<Object> args, CallbackMethod callback, Executor executor,
+			boolean forceWait) {
+		long id = registerRequest(callback, executor);
 		// Handling list full
 		if(id == -1) {
 			cleanupPendingRequests();
-			id = registerRequest(callback);
+			id = registerRequest(callback, executor);
 			if(forceWait) {
 				while(id == -1) {
 					cleanupPendingRequests();
-					id = registerRequest(callback);
+					id = registerRequest(callback, executor);
 				}
 			} else {
 				return false;
 			}
 		}
 		
-		JSONRPC2Request req = new JSONRPC2Request(methodName, args, id);
-		String s = req.toString();
+		writeRequest(methodName, args, id, TIMEOUT_ASYNC);
+		
+		return true;
+	}
+	
+	/**
+	 * Formats a JSON-RPC 2.0 request, gives it an ID, sends it through the Socket and returns a future that will
+	 * be completed with the result when the response arrives, or completed exceptionally with a RemoteCallException
+	 * if the response is an error or never arrives.
+	 * The future is completed by the callback executor of the peer (see setCallbackExecutor).
+	 * This call does not block the current thread, unless the pending request list is full and forceWait is true.
+	 * Thread-safe.
+	 * @param methodName the name of the method to execute on the remote server.
+	 * @param args a List of arguments to execute the method with.
+	 * @param forceWait if the list of pending requests is full, and this is set to true, blocks the thread and retries until
+	 * this request can be sent.
+	 * @return the future result.
+	 */
+	public CompletableFuture<Object> sendRequest(String methodName, List<Object> args, boolean forceWait) {
+		return sendRequest(methodName, args, TIMEOUT_ASYNC, forceWait);
+	}
+	
+	/**
+	 * Same as sendRequest(String, List, boolean), telling the other peer how long we wait for the response so that
+	 * it does not execute the request after that (see setSendTimeouts). The future is not completed on timeout, unless
+	 * CompletableFuture.orTimeout is used: the request is then cancelled, like when the future is cancelled.
+	 * @param methodName the name of the method to execute on the remote server.
+	 * @param args a List of arguments to execute the method with.
+	 * @param timeout how long (in ms) we wait for the response, 0 if there is no limit.
+	 * @param forceWait if the list of pending requests is full, and this is set to true, blocks the thread and retries until
+	 * this request can be sent. Otherwise the future fails with a TooManyRequestsException.
+	 * @return the future result.
+	 */
+	public CompletableFuture<Object> sendRequest(String methodName, List<Object> args, int timeout, boolean forceWait) {
+		CompletableFuture<Object> future = new CompletableFuture<Object>();
+		long id = registerFutureRequest(future);
+		// Handling list full
+		if(id == -1) {
+			cleanupPendingRequests();
+			id = registerFutureRequest(future);
+			if(forceWait) {
+				while(id == -1) {
+					cleanupPendingRequests();
+					id = registerFutureRequest(future);
+				}
+			} else if(id == -1) {
+				future.completeExceptionally(new TooManyRequestsException());
+				return future;
+			}
+		}
 		
-		_log.log(Level.INFO, "Sending request:" + s);
-		synchronized(_out) {
-			_out.println(s);
-			_out.flush();
+		// Cancelling the future, or timing it out (see CompletableFuture.orTimeout), cancels the request
+		final long requestId = id;
+		future.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object result, Throwable error) {
+				if(error instanceof CancellationException || error instanceof TimeoutException) {
+					cancelRequest(requestId);
+				}
+			}
+		});
+		
+		writeRequest(methodName, args, id, timeout);
+		
+		return future;
+	}
+	
+	/**
+	 * Creates a proxy of the given interface, whose methods send requests to the methods of the other peer with the same
+	 * name. Methods returning a CompletableFuture are called asynchronously, the other ones block until the
+	 * response arrives and throw a RemoteCallException if the call fails.
+	 * The interface is analyzed once, here, so an interface whose results cannot be decoded is rejected right away.
+	 * @param iface the interface, describing (part of) the API of the other peer.
+	 * @return the proxy.
+	 * @throws IllegalArgumentException if the interface cannot be proxied.
+	 */
+	public <T> T createProxy(Class<T> iface) {
+		return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface },
+				new RemoteProxy(this, iface)));
+	}
+	
+	/**
+	 * Formats a JSON-RPC 2.0 request for a method returning an Iterator, gives it an ID, sends it through the Socket
+	 * and registers the handler that will consume the chunks of the result as they arrive.
+	 * The other peer only sends a few chunks in advance, the next ones are requested as the handler consumes them.
+	 * This call does not block the current thread.
+	 * Thread-safe.
+	 * @param methodName the name of the method to execute on the remote server.
+	 * @param args a List of arguments to execute the method with.
+	 * @param handler the handler that will consume the chunks of the result.
+	 * @param forceWait if the list of pending requests is full, and this is set to true, blocks the thread and retries until
+	 * this request can be sent.
+	 * @return True if the request was sent successfully, false else (if the pending request list was full)
+	 */
+	public boolean sendStreamRequest(String methodName, List<Object> args, StreamHandler handler, boolean forceWait) {
+		long id = registerStreamRequest(handler);
+		// Handling list full
+		if(id == -1) {
+			cleanupPendingRequests();
+			id = registerStreamRequest(handler);
+			if(forceWait) {
+				while(id == -1) {
+					cleanupPendingRequests();
+					id = registerStreamRequest(handler);
+				}
+			} else if(id == -1) {
+				return false;
+			}
 		}
 		
+		writeRequest(methodName, args, id, TIMEOUT_ASYNC);
+		
 		return true;
 	}
 	
+	/**
+	 * Formats a JSON-RPC 2.0 request and sends it through the Socket.
+	 * Unless disabled (see setSendTimeouts), the request carries how long we wait for its response, so that the other
+	 * peer does not execute it once we have given up.
+	 * @param methodName the name of the method to execute on the remote server.
+	 * @param args a List of arguments to execute the method with.
+	 * @param id the ID of the request.
+	 * @param timeout how long (in ms) we wait for the response, 0 if there is no limit.
+	 */
+	private void writeRequest(String methodName, List<Object> args, long id, int timeout) {
+		JSONRPC2Request req = new JSONRPC2Request(methodName, args, id);
+		if(_sendTimeouts && timeout > 0) {
+			req.appendNonStdAttribute(ATTRIBUTE_TIMEOUT, timeout);
+		}
+		
+		PendingRequest pr = getPendingRequest(id);
+		if(pr != null && !(pr instanceof StreamPendingRequest) && _idempotentMethods.contains(methodName)) {
+			// Kept to send it again if the connection is lost before the response
+			pr.setRequest(req);
+		}
+		if(_closed || (_reconnecting && (pr == null || pr.getRequest() == null))) {
+			failRequest(id);
+			return;
+		} else if(_reconnecting) {
+			// Sent once reconnected
+			return;
+		}
+		send("request", req);
+	}
+	
+	/**
+	 * Sets whether the requests tell the other peer how long we wait for their response (a non-standard "timeout"
+	 * attribute, in ms). The requests that expire before being executed are then answered with a Deadline Exceeded
+	 * error (ERROR_CODE_DEADLINE_EXCEEDED) instead of being executed.
+	 * The timeout is counted by the other peer from the moment it reads the request, so the requests waiting for its
+	 * request executor (see setRequestExecutor) can expire, but not the ones still waiting in the Socket.
+	 * Enabled by default, the peers ignoring this attribute are not affected.
+	 * @param enabled true to send the timeouts.
+	 */
+	public void setSendTimeouts(boolean enabled) {
+		_sendTimeouts = enabled;
+	}
+	
 	/**
 	 * Formats a JSON-RPC 2.0 notification and sends it through the Socket. A notification
 	 * is the same as a request except that it does not have an ID and does not require
@@ -529,12 +1999,7 @@ public class JJsonPeer extends Thread {
 	 */
 	public void sendNotification(String methodName, List<Object> args) {
 		JSONRPC2Notification not = new JSONRPC2Notification(methodName, args);
-		String s = not.toString();
-		_log.log(Level.INFO, "Sending Notification:" + s);
-		synchronized(_out) {
-			_out.println(s);
-			_out.flush();
-		}
+		send("Notification", not);
 	}
 	
 	/**
@@ -546,12 +2011,7 @@ public class JJsonPeer extends Thread {
 	 */
 	public void sendErrorResponse(int code, String message, Long reqId) {
 		JSONRPC2Response resp = new JSONRPC2Response(new JSONRPC2Error(code, message), reqId);
-		String s = resp.toString();
-		_log.log(Level.INFO, "Sending Error Response:" + s);
-		synchronized(_out) {
-			_out.println(s);
-			_out.flush();
-		}
+		send("Error Response", resp);
 	}
 	
 	/**
@@ -570,13 +2030,44 @@ public class JJsonPeer extends Thread {
 	 * @param o the object returned by the method called by the corresponding request.
 	 */
 	public void sendResponse(long id, Object o) {
-		JSONRPC2Response r = new JSONRPC2Response(o, id);
-		String s = r.toString();
-		_log.log(Level.INFO, "Sending Response:" + s);
-		synchronized(_out) {
-			_out.println(s);
-			_out.flush();
+		JSONRPC2Response r = new JSONRPC2Response(Helper.encode(o), id);
+		send("Response", r);
+	}
+	
+	/**
+	 * Sends the response for a cached result, encoding it only if it is not already, and inserting the ID
+	 * of the request in the encoded response.
+	 * @param id the ID of the corresponding request.
+	 * @param entry the cached result.
+	 */
+	private void sendCachedResponse(long id, ResultCache.Entry entry) {
+		if(_transport instanceof MessageTransport) {
+			send("Cached Response", new JSONRPC2Response(Helper.encode(entry.getResult()), id));
+			return;
+		}
+		
+		String frame = entry.getFrame();
+		if(frame == null) {
+			// Same content as a JSONRPC2Response, with the ID last so that the frame can be reused.
+			frame = "{\"jsonrpc\":\"2.0\",\"result\":" + JSONValue.toJSONString(Helper.encode(entry.getResult())) + ",\"id\":";
+			entry.setFrame(frame);
 		}
+		
+		String s = frame + id + "}";
+		_log.log(Level.INFO, "Sending Cached Response:" + s);
+		write(s);
+	}
+	
+	/**
+	 * Cancels a request made to the other peer: forgets it, and tells the other peer to stop executing it.
+	 * The response, if it is sent anyway, will be ignored.
+	 * @param id the ID of the request.
+	 */
+	private void cancelRequest(long id) {
+		removeRequest(id);
+		List<Object> args = new ArrayList<Object>(1);
+		args.add(id);
+		sendNotification(METHOD_CANCEL, args);
 	}
 	
 	/**
@@ -594,7 +2085,12 @@ public class JJsonPeer extends Thread {
 					&& System.currentTimeMillis() - startTime < TIMEOUT_SYNC) {
 			}
 			
-			removeRequest(id);
+			if(((WaitingPendingRequest) pr).getResult() == null && !((WaitingPendingRequest) pr).isError()) {
+				// Timed out, the other peer can stop working on it
+				cancelRequest(id);
+			} else {
+				removeRequest(id);
+			}
 			return ((WaitingPendingRequest) pr).isError() ? 
 					((WaitingPendingRequest) pr).getError() : ((WaitingPendingRequest) pr).getResult();
 		}
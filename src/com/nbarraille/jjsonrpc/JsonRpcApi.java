@@ -0,0 +1,24 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an API class for which code is generated at build time, by the annotation processor
+ * com.nbarraille.jjsonrpc.processor.ApiProcessor (registered in the jar, so it runs whenever the library is on the
+ * compiler's classpath):
+ *    + &lt;ApiClass&gt;Dispatcher: an ApiDefinition calling the static methods of the class directly, through a switch,
+ *      instead of by reflection. Its INSTANCE is automatically used by the peers created with the API class, and
+ *      can be given directly to the peers, TcpServer and TcpClient.
+ *    + &lt;ApiClass&gt;Stub: a ClientStub with a typed method (and an asynchronous variant, suffixed by Async) for each
+ *      method of the class, to call them from the other peer.
+ * 
+ * @author nbarraille
+ *
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonRpcApi {
+}
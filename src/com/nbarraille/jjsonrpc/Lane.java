@@ -0,0 +1,136 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lane executes the requests for the methods of an API declaring it (see Bulkhead), with its own threads and its
+ * own bounded queue. The lanes are identified by their name, and shared by all the peers.
+ * @author nbarraille
+ *
+ */
+public class Lane {
+	private final static long KEEP_ALIVE = 60; // Time (in s) after which the idle threads of a lane are stopped.
+
+	private static Map<String, Lane> _lanes = new ConcurrentHashMap<String, Lane>();
+
+	private String _name; // The name of the lane.
+	private int _threads; // The number of threads of the lane.
+	private int _queueSize; // The maximum number of requests waiting for a thread.
+	private int _priority; // The priority of the threads.
+	private ThreadPoolExecutor _executor; // Executes the requests of the lane.
+
+	/**
+	 * Returns the lane with the given name, creating it the first time.
+	 * Thread-safe.
+	 * @param name the name of the lane.
+	 * @param threads the number of threads of the lane.
+	 * @param queueSize the maximum number of requests waiting for a thread.
+	 * @param priority the priority of the threads.
+	 * @return the lane.
+	 * @throws IllegalArgumentException if the settings are not valid, or differ from the ones of the existing lane.
+	 */
+	public static Lane get(String name, int threads, int queueSize, int priority) {
+		String error = validate(threads, queueSize, priority);
+		if(error != null)
+			throw new IllegalArgumentException("Invalid lane " + name + ": " + error);
+
+		Lane lane = _lanes.get(name);
+		if(lane == null) {
+			synchronized(_lanes) {
+				lane = _lanes.get(name);
+				if(lane == null) {
+					lane = new Lane(name, threads, queueSize, priority);
+					_lanes.put(name, lane);
+				}
+			}
+		}
+		if(lane._threads != threads || lane._queueSize != queueSize || lane._priority != priority)
+			throw new IllegalArgumentException("Lane " + name + " already exists with other settings: " + lane._threads
+					+ " threads, queue size " + lane._queueSize + ", priority " + lane._priority);
+		return lane;
+	}
+
+	/**
+	 * Checks the settings of a lane.
+	 * @param threads the number of threads of the lane, at least 1.
+	 * @param queueSize the maximum number of requests waiting for a thread, at least 0 (the requests are then only
+	 * accepted if a thread is idle).
+	 * @param priority the priority of the threads, between Thread.MIN_PRIORITY and Thread.MAX_PRIORITY.
+	 * @return the reason why they are not valid, or null if they are.
+	 */
+	public static String validate(int threads, int queueSize, int priority) {
+		if(threads <= 0)
+			return "the number of threads must be positive";
+		if(queueSize < 0)
+			return "the queue size cannot be negative";
+		if(priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY)
+			return "the priority must be between " + Thread.MIN_PRIORITY + " and " + Thread.MAX_PRIORITY;
+		return null;
+	}
+
+	/**
+	 * Returns the lane declared by an annotation.
+	 * @param bulkhead the annotation.
+	 * @return the lane.
+	 * @throws IllegalArgumentException if the settings of the annotation are not valid, or differ from the ones of
+	 * the existing lane.
+	 */
+	public static Lane get(Bulkhead bulkhead) {
+		return get(bulkhead.value(), bulkhead.threads(), bulkhead.queueSize(), bulkhead.priority());
+	}
+
+	private Lane(final String name, int threads, int queueSize, final int priority) {
+		_name = name;
+		_threads = threads;
+		_queueSize = queueSize;
+		_priority = priority;
+		BlockingQueue<Runnable> queue;
+		if(queueSize == 0) {
+			queue = new SynchronousQueue<Runnable>();
+		} else {
+			queue = new ArrayBlockingQueue<Runnable>(queueSize);
+		}
+		_executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS, queue, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "JJsonPeer lane " + name);
+				t.setDaemon(true);
+				t.setPriority(priority);
+				return t;
+			}
+		});
+		_executor.allowCoreThreadTimeOut(true);
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * Returns the executor of the lane. It throws a RejectedExecutionException when its queue is full.
+	 */
+	public Executor getExecutor() {
+		return _executor;
+	}
+
+	/**
+	 * Returns the number of requests waiting for a thread (for monitoring).
+	 */
+	public int getQueued() {
+		return _executor.getQueue().size();
+	}
+
+	/**
+	 * Returns the number of requests being executed (for monitoring).
+	 */
+	public int getActive() {
+		return _executor.getActiveCount();
+	}
+}
@@ -0,0 +1,530 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A client connected to several TcpServers serving the same API, that spreads its requests over them without
+ * an external load balancer.
+ * Each request is routed with the "power of two choices": two servers are picked at random, and the request is
+ * sent to the least loaded one, which is either the one with the fewest outstanding requests (the default), or the
+ * one with the lowest latency weighted by its outstanding requests (see setLatencyAware). This avoids the slow or
+ * busy servers without sending every request to the same one.
+ * The servers that fail, or that are much slower than the others, are ejected for a while (see setEjection).
+ * The connections lost, and the servers that cannot be reached at first, are connected in the background (see
+ * TcpClient.setReconnect). No request is routed to a server until it is connected.
+ * The late requests to idempotent methods can be sent to a second server, to cut the tail latency (see setHedging).
+ * @author nbarraille
+ *
+ */
+public class LoadBalancedClient implements RequestSender {
+	private final static long RECONNECT_DELAY = 100; // Delay (in ms) before the second reconnection attempt.
+	private final static long MAX_RECONNECT_DELAY = 5000; // Maximum delay (in ms) between two reconnection attempts.
+	private final static int MAX_FAILURES = 5; // Consecutive failures ejecting a server, by default.
+	private final static double SLOW_FACTOR = 5; // How much slower than the others a server is too slow, by default.
+	private final static long EJECTION_TIME = 10000; // How long (in ms) a server is ejected, by default.
+	private final static double MAX_EJECTED_RATIO = 0.5; // The maximum part of the servers ejected at the same time.
+	private final static double DEFAULT_LATENCY = 1; // The latency (in ms) of the servers when none is known.
+	private final static int MIN_SERVER_ERROR = -32099; // The range of codes of the errors caused by the server.
+	private final static int MAX_SERVER_ERROR = -32000;
+	
+	private Logger _log = Logger.getLogger(this.getClass().getCanonicalName()); // The logger object.
+	private List<Endpoint> _endpoints; // The servers.
+	private volatile boolean _latencyAware; // Are the requests routed by latency rather than by outstanding requests.
+	private volatile int _maxFailures; // Consecutive failures ejecting a server, 0 to never eject.
+	private volatile double _slowFactor; // How much slower than the others a server fails, 0 to ignore latencies.
+	private volatile long _ejectionTime; // How long (in ms) a server is ejected.
+	private volatile HedgingPolicy _hedging; // Decides when the requests are hedged, null if they are not.
+	private Set<String> _idempotentMethods; // The remote methods whose requests can be hedged.
+	
+	/**
+	 * Connects to all the given servers, see LoadBalancedClient(List, ApiDefinition).
+	 * @param servers the addresses of the servers.
+	 * @param apiClass the local "API Class", where all the methods that the servers can execute are.
+	 * @throws IOException if none of the servers can be reached.
+	 */
+	public LoadBalancedClient(List<InetSocketAddress> servers, Class<?> apiClass) throws IOException {
+		this(servers, ApiDefinition.forClass(apiClass));
+	}
+	
+	/**
+	 * Connects to all the given servers. The servers that cannot be reached are connected in the background, no
+	 * request is routed to them until then.
+	 * @param servers the addresses of the servers.
+	 * @param api the local methods that the servers can execute.
+	 * @throws IOException if none of the servers can be reached.
+	 */
+	public LoadBalancedClient(List<InetSocketAddress> servers, ApiDefinition api) throws IOException {
+		if(servers.isEmpty())
+			throw new IllegalArgumentException("No server to connect to");
+		
+		List<Endpoint> endpoints = new ArrayList<Endpoint>();
+		IOException failure = null;
+		for(InetSocketAddress address : servers) {
+			TcpClient client;
+			try {
+				client = new TcpClient(address.getHostString(), address.getPort(), api);
+				client.setReconnect(RECONNECT_DELAY, MAX_RECONNECT_DELAY);
+			} catch(IOException e) {
+				_log.log(Level.WARNING, "Cannot connect to " + address + ": " + e.getMessage() + ", connecting in the background");
+				failure = e;
+				client = new TcpClient(address.getHostString(), address.getPort(), api, RECONNECT_DELAY, MAX_RECONNECT_DELAY);
+			}
+			endpoints.add(new Endpoint(address, client));
+		}
+		if(failure != null && !isAnyConnected(endpoints)) {
+			for(Endpoint endpoint : endpoints) {
+				endpoint.close();
+			}
+			throw failure;
+		}
+		_endpoints = Collections.unmodifiableList(endpoints);
+		_latencyAware = false;
+		_maxFailures = MAX_FAILURES;
+		_slowFactor = SLOW_FACTOR;
+		_ejectionTime = EJECTION_TIME;
+		_idempotentMethods = ConcurrentHashMap.newKeySet();
+	}
+	
+	/**
+	 * Sets how the requests are routed: to the server with the fewest outstanding requests (the default), or to the
+	 * one with the lowest latency multiplied by its outstanding requests plus one. The latency is an average that
+	 * rises at once when a server slows down (see Endpoint).
+	 * @param enabled true to take the latency into account.
+	 */
+	public void setLatencyAware(boolean enabled) {
+		_latencyAware = enabled;
+	}
+	
+	/**
+	 * Sets when the servers are ejected: no request is routed to an ejected server until the ejection time is over.
+	 * A server is ejected after maxFailures consecutive requests that failed because of it (no response, or an error
+	 * between -32000 and -32099, like ERROR_CODE_OVERLOADED or ERROR_CODE_CONNECTION_CLOSED) or that were slowFactor
+	 * times slower than the median average latency of the other servers. At most half of the servers are ejected at the same
+	 * time, so that a problem on the client side does not eject them all.
+	 * @param maxFailures the number of consecutive failures ejecting a server, 0 to never eject a server.
+	 * @param slowFactor how much slower than the others a response is a failure, 0 to ignore the latencies.
+	 * @param ejectionTime how long (in ms) a server is ejected.
+	 */
+	public void setEjection(int maxFailures, double slowFactor, long ejectionTime) {
+		_maxFailures = maxFailures;
+		_slowFactor = slowFactor;
+		_ejectionTime = ejectionTime;
+	}
+	
+	/**
+	 * Sets the policy hedging the requests to the idempotent methods (see Idempotent): when the response of a request
+	 * is late, the same request is sent to another server, the first response is used and the other request is
+	 * cancelled. The policy tells how late a response must be, limits the extra load, and counts the hedges.
+	 * Applies to the synchronous and asynchronous calls, including the ones made through the proxies.
+	 * @param policy the hedging policy, null to never hedge the requests (the default).
+	 */
+	public void setHedging(HedgingPolicy policy) {
+		_hedging = policy;
+	}
+	
+	/**
+	 * Returns the servers, with their statistics.
+	 */
+	public List<Endpoint> getEndpoints() {
+		return _endpoints;
+	}
+	
+	/**
+	 * Sends a request to one of the servers, see JJsonPeer.sendRequest.
+	 * @param methodName the name of the method to execute on the server.
+	 * @param args a List of arguments to execute the method with.
+	 * @param forceWait if too many requests are pending on the server, and this is set to true, blocks the thread and
+	 * retries until this request can be sent.
+	 * @return the future result.
+	 */
+	public CompletableFuture<Object> sendRequest(String methodName, List<Object> args, boolean forceWait) {
+		return sendRequest(methodName, args, JJsonPeer.TIMEOUT_ASYNC, forceWait);
+	}
+	
+	/**
+	 * Sends a request to one of the servers, see JJsonPeer.sendRequest.
+	 * Thread-safe.
+	 * @param methodName the name of the method to execute on the server.
+	 * @param args a List of arguments to execute the method with.
+	 * @param timeout how long (in ms) we wait for the response, 0 if there is no limit.
+	 * @param forceWait if too many requests are pending on the server, and this is set to true, blocks the thread and
+	 * retries until this request can be sent.
+	 * @return the future result.
+	 */
+	public CompletableFuture<Object> sendRequest(String methodName, List<Object> args, int timeout, boolean forceWait) {
+		HedgingPolicy hedging = _hedging;
+		if(hedging != null && _endpoints.size() > 1 && _idempotentMethods.contains(methodName))
+			return sendHedgedRequest(methodName, args, timeout, forceWait, hedging);
+		
+		return sendRequest(choose(null), methodName, args, timeout, forceWait, null);
+	}
+	
+	/**
+	 * Sends a request to a server, and updates its statistics when it ends.
+	 * The future fails with a TimeoutException once the timeout is over, so that a server that stays connected but
+	 * never answers is detected.
+	 * @param endpoint the server.
+	 * @param methodName the name of the method to execute on the server.
+	 * @param args a List of arguments to execute the method with.
+	 * @param timeout how long (in ms) we wait for the response, 0 if there is no limit.
+	 * @param forceWait true to block the thread until the request can be sent.
+	 * @param abandoned set before the request is cancelled because it is not needed anymore (see abandon), null if it
+	 * is never abandoned.
+	 * @return the future result.
+	 */
+	private CompletableFuture<Object> sendRequest(final Endpoint endpoint, String methodName, List<Object> args,
+			final int timeout, boolean forceWait, final AtomicBoolean abandoned) {
+		final long start = System.nanoTime();
+		endpoint.requestStarted();
+		CompletableFuture<Object> future = endpoint.getPeer().sendRequest(methodName, args, timeout, forceWait);
+		if(timeout > 0) {
+			future.orTimeout(timeout, TimeUnit.MILLISECONDS);
+		}
+		future.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object result, Throwable error) {
+				// The time until an abandoned request is cancelled says nothing about the server
+				if(abandoned != null && abandoned.get() && error instanceof CancellationException) {
+					endpoint.requestAbandoned();
+				} else {
+					requestEnded(endpoint, (System.nanoTime() - start) / 1000000.0, timeout, error);
+				}
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Sends a request to a server, and the same request to another server if the response is late (see setHedging).
+	 * @param methodName the name of the method to execute on the servers.
+	 * @param args a List of arguments to execute the method with.
+	 * @param timeout how long (in ms) we wait for the response, 0 if there is no limit.
+	 * @param forceWait true to block the thread until the first request can be sent.
+	 * @param hedging the hedging policy.
+	 * @return the future result, completed by the first response.
+	 */
+	private CompletableFuture<Object> sendHedgedRequest(final String methodName, final List<Object> args,
+			final int timeout, boolean forceWait, final HedgingPolicy hedging) {
+		final CompletableFuture<Object> result = new CompletableFuture<Object>();
+		final long start = System.nanoTime();
+		final Endpoint endpoint = choose(null);
+		final AtomicBoolean firstAbandoned = new AtomicBoolean();
+		final AtomicBoolean hedgeAbandoned = new AtomicBoolean();
+		final CompletableFuture<Object> first = sendRequest(endpoint, methodName, args, timeout, forceWait,
+				firstAbandoned);
+		final AtomicReference<CompletableFuture<Object>> second = new AtomicReference<CompletableFuture<Object>>();
+		final AtomicReference<ScheduledFuture<?>> timer = new AtomicReference<ScheduledFuture<?>>();
+		hedging.requestSent();
+		
+		// Completes the result with the first response, unless it is an error and the other request may still succeed
+		class Attempt implements BiConsumer<Object, Throwable> {
+			private boolean _hedge; // Is it the hedge.
+			
+			Attempt(boolean hedge) {
+				_hedge = hedge;
+			}
+			
+			@Override
+			public void accept(Object response, Throwable error) {
+				if(error instanceof CancellationException)
+					return;
+				
+				CompletableFuture<Object> other = _hedge ? first : second.get();
+				if(error == null) {
+					if(!result.complete(response))
+						return;
+					hedging.record(methodName, System.nanoTime() - start);
+					if(_hedge) {
+						hedging.hedgeWon();
+					}
+				} else if(other != null && !other.isDone()) {
+					return;
+				} else if(!result.completeExceptionally(error)) {
+					return;
+				}
+				
+				ScheduledFuture<?> t = timer.get();
+				if(t != null) {
+					t.cancel(false);
+				}
+				if(other != null) {
+					abandon(other, _hedge ? firstAbandoned : hedgeAbandoned);
+				}
+			}
+		}
+		
+		long delay = hedging.getDelay(methodName);
+		if(delay >= 0) {
+			final Runnable sendHedge = new Runnable() {
+				public void run() {
+					if(result.isDone() || !hedging.tryHedge())
+						return;
+					
+					// The hedge is dropped if it cannot be sent right away, it would be too late anyway
+					CompletableFuture<Object> hedge = sendRequest(choose(endpoint), methodName, args, timeout, false,
+							hedgeAbandoned);
+					second.set(hedge);
+					hedge.whenComplete(new Attempt(true));
+					if(result.isDone()) {
+						abandon(hedge, hedgeAbandoned);
+					}
+				}
+			};
+			// Never sending from the shared scheduler thread, a write may block
+			timer.set(JJsonPeer.getScheduler().schedule(new Runnable() {
+				public void run() {
+					JJsonPeer.getBackgroundExecutor().execute(sendHedge);
+				}
+			}, delay, TimeUnit.NANOSECONDS));
+		}
+		first.whenComplete(new Attempt(false));
+		
+		// Cancelling the result cancels both requests
+		result.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object response, Throwable error) {
+				if(error instanceof CancellationException) {
+					first.cancel(false);
+					CompletableFuture<Object> hedge = second.get();
+					if(hedge != null) {
+						hedge.cancel(false);
+					}
+					ScheduledFuture<?> t = timer.get();
+					if(t != null) {
+						t.cancel(false);
+					}
+				}
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Cancels a request whose response is not needed anymore, because the other request of a hedged call has ended
+	 * first. It is not counted in the statistics of its server.
+	 * @param future the request.
+	 * @param abandoned the flag given to sendRequest for this request.
+	 */
+	private static void abandon(CompletableFuture<Object> future, AtomicBoolean abandoned) {
+		abandoned.set(true);
+		future.cancel(false);
+	}
+	
+	/**
+	 * Creates a proxy of the given interface, whose methods send requests to the servers (see JJsonPeer.createProxy).
+	 * @param iface the interface, describing (part of) the API of the servers.
+	 * @return the proxy.
+	 * @throws IllegalArgumentException if the interface cannot be proxied.
+	 */
+	public <T> T createProxy(Class<T> iface) {
+		return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface },
+				new RemoteProxy(this, iface)));
+	}
+	
+	/**
+	 * Marks a remote method as idempotent on the peers of all the servers (see JJsonPeer.addIdempotentMethod), its
+	 * requests can then be hedged (see setHedging).
+	 * @param methodName the name of the remote method.
+	 */
+	public void addIdempotentMethod(String methodName) {
+		_idempotentMethods.add(methodName);
+		for(Endpoint endpoint : _endpoints) {
+			endpoint.getPeer().addIdempotentMethod(methodName);
+		}
+	}
+	
+	/**
+	 * Closes the connections to all the servers.
+	 */
+	public void close() {
+		for(Endpoint endpoint : _endpoints) {
+			endpoint.close();
+		}
+	}
+	
+	/**
+	 * Returns true if one of the servers is connected.
+	 * @param endpoints the servers.
+	 */
+	private static boolean isAnyConnected(List<Endpoint> endpoints) {
+		for(Endpoint endpoint : endpoints) {
+			if(endpoint.getPeer().isConnected())
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Chooses the server of a request: the least loaded of two servers picked at random among the ones that are
+	 * connected and not ejected (or among all of them, if there is none).
+	 * @param excluded a server that must not be chosen, null if none. There must be another server.
+	 * @return the server.
+	 */
+	private Endpoint choose(Endpoint excluded) {
+		long now = System.currentTimeMillis();
+		List<Endpoint> available = new ArrayList<Endpoint>(_endpoints.size());
+		for(Endpoint endpoint : _endpoints) {
+			if(!endpoint.isEjected(now) && endpoint.getPeer().isConnected() && endpoint != excluded) {
+				available.add(endpoint);
+			}
+		}
+		if(available.isEmpty()) {
+			for(Endpoint endpoint : _endpoints) {
+				if(endpoint != excluded) {
+					available.add(endpoint);
+				}
+			}
+		}
+		
+		int n = available.size();
+		if(n == 1)
+			return available.get(0);
+		
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int i = random.nextInt(n);
+		int j = random.nextInt(n - 1);
+		if(j >= i) {
+			j++;
+		}
+		Endpoint a = available.get(i);
+		Endpoint b = available.get(j);
+		return getLoad(a) <= getLoad(b) ? a : b;
+	}
+	
+	/**
+	 * Returns the load of a server, the lowest is chosen.
+	 * It grows with the recent consecutive failures of the server: a server failing right away has no outstanding
+	 * request, and must not attract the requests while it cannot be ejected. The failures older than the ejection time
+	 * are forgotten, so that the server is tried again.
+	 * A server without latency yet (new, or back from an ejection) is given the median latency of the others, so that
+	 * its outstanding requests still count and it is not flooded until its first response.
+	 * @param endpoint the server.
+	 * @return its outstanding requests, weighted by its latency if the routing is latency aware.
+	 */
+	private double getLoad(Endpoint endpoint) {
+		double load = endpoint.getOutstanding() + 1;
+		if(_latencyAware) {
+			double latency = endpoint.getLatency();
+			if(latency == 0) {
+				latency = getMedianLatency(endpoint);
+			}
+			load *= latency > 0 ? latency : DEFAULT_LATENCY;
+		}
+		return load * (endpoint.getFailures(System.currentTimeMillis() - _ejectionTime) + 1);
+	}
+	
+	/**
+	 * Counts the end of a request sent to a server, and ejects the server if it has failed too many times in a row.
+	 * @param endpoint the server.
+	 * @param latency how long (in ms) the response has taken.
+	 * @param timeout how long (in ms) the response was waited for, 0 if there was no limit.
+	 * @param error the reason why the request has failed, null if it has succeeded.
+	 */
+	private void requestEnded(Endpoint endpoint, double latency, int timeout, Throwable error) {
+		if(error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		if(error instanceof TooManyRequestsException) {
+			// Rejected by the client before being sent, it says nothing about the server
+			endpoint.requestAbandoned();
+			return;
+		}
+		
+		// A request cancelled by the caller may have been slow, but has not failed, unless the caller gave up waiting
+		// for the response (like ClientStub.await does once the timeout is over)
+		boolean failed;
+		if(error instanceof CancellationException) {
+			failed = timeout > 0 && latency >= timeout;
+		} else {
+			failed = isServerFailure(error);
+		}
+		if(!failed && _slowFactor > 0) {
+			double median = getMedianLatency(endpoint);
+			failed = median > 0 && latency > median * _slowFactor;
+		} else if(failed) {
+			latency = -1;
+		}
+		
+		int failures = endpoint.requestEnded(latency, failed);
+		int maxFailures = _maxFailures;
+		if(maxFailures > 0 && failures >= maxFailures) {
+			eject(endpoint);
+		}
+	}
+	
+	/**
+	 * Returns true if a request failed because of the server: it did not answer (in time), or answered with a server
+	 * error.
+	 * @param error the reason why the request has failed, null if it has succeeded.
+	 */
+	private boolean isServerFailure(Throwable error) {
+		if(error == null)
+			return false;
+		if(!(error instanceof RemoteCallException))
+			return true;
+		
+		RemoteError re = ((RemoteCallException) error).getError();
+		return re == null || (re.getCode() >= MIN_SERVER_ERROR && re.getCode() <= MAX_SERVER_ERROR);
+	}
+	
+	/**
+	 * Returns the median average latency of the servers other than the given one, ignoring those without latency yet.
+	 * @param endpoint the server to leave out.
+	 * @return the median latency, in ms, 0 if no other server has one.
+	 */
+	private double getMedianLatency(Endpoint endpoint) {
+		double[] latencies = new double[_endpoints.size()];
+		int n = 0;
+		for(Endpoint other : _endpoints) {
+			double latency = other.getAverageLatency();
+			if(other != endpoint && latency > 0) {
+				latencies[n++] = latency;
+			}
+		}
+		if(n == 0)
+			return 0;
+		
+		Arrays.sort(latencies, 0, n);
+		return n % 2 == 1 ? latencies[n / 2] : (latencies[n / 2 - 1] + latencies[n / 2]) / 2;
+	}
+	
+	/**
+	 * Ejects a server, unless too many servers are already ejected.
+	 * @param endpoint the server.
+	 */
+	private void eject(Endpoint endpoint) {
+		synchronized(this) {
+			long now = System.currentTimeMillis();
+			int ejected = 0;
+			for(Endpoint other : _endpoints) {
+				if(other.isEjected(now)) {
+					ejected++;
+				}
+			}
+			if(endpoint.isEjected(now) || ejected + 1 > _endpoints.size() * MAX_EJECTED_RATIO)
+				return;
+			
+			endpoint.eject(now + _ejectionTime);
+		}
+		_log.log(Level.WARNING, "Server " + endpoint + " ejected for " + _ejectionTime + "ms");
+	}
+}
@@ -0,0 +1,41 @@
+package com.nbarraille.jjsonrpc;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Message;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Parser;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParseException;
+
+/**
+ * Parses the frames received into requests, responses or notifications, in a single pass.
+ * The non-standard attributes (the timeout of the requests) are only parsed in the frames that can be requests or
+ * responses: the JSON-RPC parser rejects the notifications with parameters when they are enabled.
+ * Not thread-safe.
+ * @author nbarraille
+ *
+ */
+class MessageParser {
+	private JSONRPC2Parser _parser; // Parses the requests and responses, with their non-standard attributes.
+	private JSONRPC2Parser _notificationParser; // Parses the notifications, without non-standard attributes.
+	
+	MessageParser() {
+		_parser = new JSONRPC2Parser(false, false, true);
+		_notificationParser = new JSONRPC2Parser();
+	}
+	
+	/**
+	 * Parses a frame.
+	 * @param frame the JSON frame.
+	 * @return the request, response or notification.
+	 * @throws JSONRPC2ParseException if the frame is not a valid JSON-RPC message.
+	 */
+	JSONRPC2Message parse(String frame) throws JSONRPC2ParseException {
+		if(frame.indexOf("\"id\"") < 0) {
+			return _notificationParser.parseJSONRPC2Message(frame);
+		}
+		try {
+			return _parser.parseJSONRPC2Message(frame);
+		} catch(IllegalArgumentException e) {
+			// A notification whose parameters contain "id"
+			return _notificationParser.parseJSONRPC2Message(frame);
+		}
+	}
+}
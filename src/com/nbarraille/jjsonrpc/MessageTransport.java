@@ -0,0 +1,29 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Message;
+
+/**
+ * A Transport that carries the JSON-RPC messages themselves instead of their JSON frames, so that a JJsonPeer using
+ * it neither encodes the messages it sends nor parses the ones it receives (see InProcessTransport).
+ * The messages received must look as if they had been parsed: numbers as Longs or Doubles, arrays as Lists and
+ * objects as Maps with String keys.
+ * @author nbarraille
+ *
+ */
+public interface MessageTransport extends Transport {
+	/**
+	 * Reads the next message sent by the other peer, blocking until there is one.
+	 * @return the message, or null if the other peer has closed the connection.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public JSONRPC2Message readMessage() throws IOException;
+	
+	/**
+	 * Sends a message to the other peer. The message must not be modified afterwards.
+	 * @param message the message to send.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void writeMessage(JSONRPC2Message message) throws IOException;
+}
@@ -0,0 +1,24 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Gives its name to a parameter of an API method, so that it can be called with named parameters
+ * (a JSON object instead of an array).
+ * Without this annotation, the name of the parameter in the source is used if the API class has been compiled
+ * with the -parameters option of javac, or if a dispatcher has been generated for it (see JsonRpcApi).
+ *
+ * @author nbarraille
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface Param {
+	/**
+	 * The name of the parameter.
+	 */
+	String value();
+}
@@ -0,0 +1,166 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A Server creating a JJsonPeer for each connection it accepts, whatever the transport (see TcpServer and
+ * UnixServer). It applies its settings to the new peers, and offers access to all of them until they are
+ * disconnected.
+ * @author nbarraille
+ *
+ */
+public abstract class PeerServer {
+	private CopyOnWriteArrayList<JJsonPeer> _peers; // The connected peers, modified by the listener and the disconnected peers.
+	private DisconnectListener _disconnectListener; // Removes the disconnected peers.
+	private int _compressionThreshold; // Compression threshold of the peers, 0 if disabled.
+	private boolean _virtualThreads; // Do the peers run on virtual threads.
+	private AdmissionControl _admission; // The admission control shared by the peers, null if none.
+	private BufferPool _bufferPool; // The pool lending the buffers of the connections, null for the default one.
+	private int _maxFrameSize; // The maximum size of a frame received by the peers, 0 if unlimited.
+	private long _heartbeatInterval; // The heartbeat interval of the peers (in ms), 0 if none.
+	private long _idleTimeout; // The idle timeout of the peers (in ms), 0 if none.
+	
+	protected PeerServer() {
+		_peers = new CopyOnWriteArrayList<JJsonPeer>();
+		_disconnectListener = new DisconnectListener() {
+			public void onDisconnect(JJsonPeer peer) {
+				removePeer(peer);
+			}
+		};
+		_compressionThreshold = 0;
+		_virtualThreads = false;
+		_maxFrameSize = FramedTransport.DEFAULT_MAX_FRAME_SIZE;
+	}
+	
+	/**
+	 * Starts the Server: Starts the listener in an other thread.
+	 * This method does not block the current thread.
+	 */
+	public abstract void start();
+	
+	/**
+	 * Enables the compression of the large frames on the connections accepted from now on.
+	 * See JJsonPeer.enableCompression.
+	 * @param threshold the minimum size of a frame to compress it, 0 to disable compression.
+	 */
+	public void setCompressionThreshold(int threshold) {
+		_compressionThreshold = threshold;
+	}
+	
+	/**
+	 * Runs the peers of the connections accepted from now on, and the requests they receive, on virtual threads.
+	 * See JJsonPeer.setVirtualThreads.
+	 * @param enabled true to use virtual threads.
+	 */
+	public void setVirtualThreads(boolean enabled) {
+		_virtualThreads = enabled;
+	}
+	
+	/**
+	 * Sets the admission control shared by the peers of the connections accepted from now on: their requests are
+	 * rejected when the server is overloaded. See AdmissionControl.
+	 * @param admission the admission control, null to accept all the requests.
+	 */
+	public void setAdmissionControl(AdmissionControl admission) {
+		_admission = admission;
+	}
+	
+	/**
+	 * Sets the pool lending the read and write buffers of the connections accepted from now on. A single pool shared
+	 * by all the connections keeps the memory used by the buffers bounded, whatever the number of connections.
+	 * See BufferPool.
+	 * @param pool the pool, null for the default one.
+	 */
+	public void setBufferPool(BufferPool pool) {
+		_bufferPool = pool;
+	}
+	
+	/**
+	 * Sets the maximum size of the frames received by the peers of the connections accepted from now on.
+	 * See JJsonPeer.setMaxFrameSize. To also limit the memory used by the frames of all the connections together,
+	 * see BufferPool.setMaxLeasedBytes.
+	 * @param size the maximum size of a frame, in bytes, 0 for no limit.
+	 */
+	public void setMaxFrameSize(int size) {
+		_maxFrameSize = size;
+	}
+	
+	/**
+	 * Sets the heartbeats and idle timeout of the peers of the connections accepted from now on, so that the dead
+	 * clients are detected and removed. See JJsonPeer.setHeartbeat.
+	 * @param interval send a heartbeat after this time (in ms) without sending anything, 0 to send none.
+	 * @param idleTimeout close a connection after this time (in ms) without receiving anything, 0 to never close it.
+	 */
+	public void setHeartbeat(long interval, long idleTimeout) {
+		_heartbeatInterval = interval;
+		_idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * Applies the settings of this server to a newly connected Peer, before it starts listening.
+	 * @param peer the new Peer.
+	 */
+	protected void configurePeer(JJsonPeer peer) {
+		if(_compressionThreshold > 0) {
+			peer.enableCompression(_compressionThreshold);
+		}
+		peer.setVirtualThreads(_virtualThreads);
+		peer.setAdmissionControl(_admission);
+		peer.setMaxFrameSize(_maxFrameSize);
+		if(_bufferPool != null && peer.getTransport() instanceof FramedTransport) {
+			((FramedTransport) peer.getTransport()).setBufferPool(_bufferPool);
+		}
+		peer.setHeartbeat(_heartbeatInterval, _idleTimeout);
+		peer.addDisconnectListener(_disconnectListener);
+	}
+	
+	/**
+	 * Adds a Peer to the Peers list if it is not already in the list, and if it is still connected.
+	 * @param peer the Peer to add to the list.
+	 */
+	protected void addPeer(JJsonPeer peer) {
+		_peers.addIfAbsent(peer);
+		// Disconnected before being added, the listener could not remove it
+		if(peer.isClosed()) {
+			removePeer(peer);
+		}
+	}
+	
+	/**
+	 * Removes a Peer from the Peers list, if it is in it.
+	 * @param peer the Peer to remove.
+	 */
+	protected void removePeer(JJsonPeer peer) {
+		_peers.remove(peer);
+	}
+	
+	/**
+	 * Returns the peer at the given index.
+	 * @param index the index.
+	 * @return the Peer at this position.
+	 */
+	public JJsonPeer getPeer(int index) {
+		return _peers.get(index);
+	}
+	
+	/**
+	 * Returns the number of peers connected to this server.
+	 * @return the number of peers.
+	 */
+	public int getPeerCount() {
+		return _peers.size();
+	}
+	
+	
+	/**
+	 * Sends a notification to all the peers connected to this server.
+	 * @param methodName the name of the method to execute on the remote peer.
+	 * @param args the arguments to execute the method with.
+	 */
+	public void sendBroadcastNotification(String methodName, List<Object> args) {
+		for(JJsonPeer jp : _peers) {
+			jp.sendNotification(methodName, args);
+		}
+	}
+}
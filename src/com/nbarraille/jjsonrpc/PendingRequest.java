@@ -1,5 +1,6 @@
 package com.nbarraille.jjsonrpc;
 
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Request;
 
 /**
  * A pending request represents a request that the local peer has made, but didn't receive or didn't use
@@ -16,7 +17,8 @@ package com.nbarraille.jjsonrpc;
  */
 public abstract class PendingRequest {
 	private long _id; // The ID of the request
-	private long _time; // The time at which the request was made (for cleanup purposes)
+	private volatile long _time; // The time at which the request was made (for cleanup purposes)
+	private volatile JSONRPC2Request _request; // The request, to send it again after a reconnection, null if it cannot be.
 
 	protected PendingRequest(long id) {
 		_id = id;
@@ -31,6 +33,30 @@ public abstract class PendingRequest {
 		return _time;
 	}
 	
+	/**
+	 * Resets the time of the request to now, so that a long-lived request that is still active (a stream)
+	 * is not cleaned up.
+	 */
+	public void touch() {
+		_time = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Keeps the request sent, so that it can be sent again if the connection is lost before the response arrives
+	 * (see Idempotent).
+	 * @param request the request.
+	 */
+	public void setRequest(JSONRPC2Request request) {
+		_request = request;
+	}
+	
+	/**
+	 * Returns the request to send again after a reconnection, or null if it must not be sent again.
+	 */
+	public JSONRPC2Request getRequest() {
+		return _request;
+	}
+	
 	/**
 	 * Overrides the equals method, so that two PendingRequest with the same ID are considered equals.
 	 */
@@ -0,0 +1,127 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+
+import net.minidev.json.JSONStreamAware;
+
+/**
+ * A PrimitiveArray wraps an array of primitives (long[], int[], double[]...) except char[] so that it is written as a JSON array
+ * directly from the primitive values, without boxing them or building an intermediate List (see Helper.encode).
+ * It is also a read-only List, so that it is accepted as a JSON value. Its elements are only boxed if they are
+ * accessed through the List methods.
+ * @author nbarraille
+ *
+ */
+public class PrimitiveArray extends AbstractList<Object> implements JSONStreamAware {
+	private Object _array; // The array of primitives.
+	
+	/**
+	 * Wraps an array of primitives.
+	 * @param array the array.
+	 * @throws IllegalArgumentException if array is not an array of primitives, or is a char[].
+	 */
+	public PrimitiveArray(Object array) {
+		if(!array.getClass().isArray() || !array.getClass().getComponentType().isPrimitive() || array instanceof char[])
+			throw new IllegalArgumentException("Not an array of numbers or booleans");
+		_array = array;
+	}
+	
+	/**
+	 * Returns the array of primitives.
+	 */
+	public Object getArray() {
+		return _array;
+	}
+	
+	@Override
+	public Object get(int index) {
+		return Array.get(_array, index);
+	}
+	
+	@Override
+	public int size() {
+		return Array.getLength(_array);
+	}
+	
+	public void writeJSONString(Appendable out) throws IOException {
+		// StringBuilder can append primitives without creating Strings.
+		StringBuilder sb = out instanceof StringBuilder ? (StringBuilder) out : new StringBuilder();
+		sb.append('[');
+		if(_array instanceof long[]) {
+			long[] a = (long[]) _array;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) sb.append(',');
+				sb.append(a[i]);
+			}
+		} else if(_array instanceof int[]) {
+			int[] a = (int[]) _array;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) sb.append(',');
+				sb.append(a[i]);
+			}
+		} else if(_array instanceof double[]) {
+			double[] a = (double[]) _array;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) sb.append(',');
+				appendDouble(sb, a[i]);
+			}
+		} else if(_array instanceof float[]) {
+			float[] a = (float[]) _array;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) sb.append(',');
+				if(Float.isNaN(a[i]) || Float.isInfinite(a[i])) {
+					sb.append("null");
+				} else {
+					sb.append(a[i]);
+				}
+			}
+		} else if(_array instanceof short[]) {
+			short[] a = (short[]) _array;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) sb.append(',');
+				sb.append(a[i]);
+			}
+		} else if(_array instanceof byte[]) {
+			byte[] a = (byte[]) _array;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) sb.append(',');
+				sb.append(a[i]);
+			}
+		} else if(_array instanceof boolean[]) {
+			boolean[] a = (boolean[]) _array;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) sb.append(',');
+				sb.append(a[i]);
+			}
+		}
+		sb.append(']');
+		
+		if(sb != out) {
+			out.append(sb);
+		}
+	}
+	
+	/**
+	 * Appends a floating point number, as null if it is not finite (JSON has no NaN nor Infinity).
+	 */
+	private static void appendDouble(StringBuilder sb, double d) {
+		if(Double.isNaN(d) || Double.isInfinite(d)) {
+			sb.append("null");
+		} else {
+			sb.append(d);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			writeJSONString(sb);
+		} catch(IOException e) {
+			// Cannot happen with a StringBuilder
+		}
+		return sb.toString();
+	}
+}
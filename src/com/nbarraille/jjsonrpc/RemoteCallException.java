@@ -0,0 +1,38 @@
+package com.nbarraille.jjsonrpc;
+
+/**
+ * Thrown by the calls made through a remote proxy (see JJsonPeer.createProxy) that did not succeed: either the
+ * other peer answered with an error, or no response was received.
+ * @author nbarraille
+ *
+ */
+public class RemoteCallException extends RuntimeException {
+	private static final long serialVersionUID = 4906785237950911283L;
+
+	private RemoteError _error; // The error sent by the other peer, null if there was no response.
+
+	/**
+	 * Creates an exception for an error response.
+	 * @param error the error sent by the other peer.
+	 */
+	public RemoteCallException(RemoteError error) {
+		super(error.getCode() + ": " + error.getMessage());
+		_error = error;
+	}
+
+	/**
+	 * Creates an exception for a call that did not get a response.
+	 * @param msg the reason.
+	 */
+	public RemoteCallException(String msg) {
+		super(msg);
+		_error = null;
+	}
+
+	/**
+	 * Returns the error sent by the other peer, or null if no response was received.
+	 */
+	public RemoteError getError() {
+		return _error;
+	}
+}
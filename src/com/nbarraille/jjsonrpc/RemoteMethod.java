@@ -0,0 +1,120 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A RemoteMethod is a method of a proxy interface (see JJsonPeer.createProxy), with everything needed to call it
+ * remotely, computed once when the proxy is created: the name of the remote method, how to encode the parameters
+ * and how to decode the result.
+ * @author nbarraille
+ *
+ */
+public class RemoteMethod {
+	private String _name; // The name of the remote method.
+	private boolean _async; // Does the method return a CompletableFuture.
+	private Class<?> _resultType; // The type the result must be converted to (Void.TYPE if none).
+	private boolean[] _arrayParams; // For each parameter, is it an array that must be encoded (see Helper.encode).
+	private boolean _hasArrayParams; // Is there at least one array parameter.
+	
+	/**
+	 * Creates a remote method from a method of a proxy interface.
+	 * @param method the method.
+	 * @throws IllegalArgumentException if the result of the method cannot be decoded.
+	 */
+	public RemoteMethod(Method method) {
+		_name = method.getName();
+		
+		Class<?> returnType = method.getReturnType();
+		if(returnType == CompletableFuture.class) {
+			_async = true;
+			Type t = method.getGenericReturnType();
+			Type arg = t instanceof ParameterizedType ? ((ParameterizedType) t).getActualTypeArguments()[0] : Object.class;
+			if(arg instanceof Class) {
+				_resultType = (Class<?>) arg;
+			} else if(arg instanceof ParameterizedType && ((ParameterizedType) arg).getRawType() instanceof Class) {
+				_resultType = (Class<?>) ((ParameterizedType) arg).getRawType();
+			} else {
+				_resultType = Object.class;
+			}
+		} else {
+			_async = false;
+			_resultType = returnType;
+		}
+		
+		if(!isSupportedResultType(_resultType))
+			throw new IllegalArgumentException("Cannot decode the result of " + method.getName() + " to " + _resultType.getName());
+		
+		Class<?>[] paramTypes = method.getParameterTypes();
+		_arrayParams = new boolean[paramTypes.length];
+		_hasArrayParams = false;
+		for(int i = 0; i < paramTypes.length; i++) {
+			_arrayParams[i] = paramTypes[i].isArray();
+			_hasArrayParams |= _arrayParams[i];
+		}
+	}
+	
+	/**
+	 * Returns true if the results sent by the other peer can be decoded to the given type.
+	 */
+	private static boolean isSupportedResultType(Class<?> type) {
+		if(type.isArray())
+			return isSupportedResultType(type.getComponentType());
+		
+		return type.isPrimitive() || Number.class.isAssignableFrom(type) || type == Boolean.class
+				|| type == String.class || type == Object.class || type == Void.class
+				|| type.isAssignableFrom(List.class) || type.isAssignableFrom(Map.class);
+	}
+	
+	public String getName() {
+		return _name;
+	}
+	
+	/**
+	 * Returns true if the method returns a CompletableFuture, false if it blocks until the response arrives.
+	 */
+	public boolean isAsync() {
+		return _async;
+	}
+	
+	/**
+	 * Encodes the arguments of a call into the parameters of the request.
+	 * @param args the arguments given to the proxy (may be null).
+	 * @return the parameters of the request.
+	 */
+	public List<Object> encodeParams(Object[] args) {
+		if(args == null)
+			return null;
+		
+		if(!_hasArrayParams)
+			return Arrays.asList(args);
+		
+		Object[] params = new Object[args.length];
+		for(int i = 0; i < args.length; i++) {
+			params[i] = _arrayParams[i] ? Helper.encode(args[i]) : args[i];
+		}
+		return Arrays.asList(params);
+	}
+	
+	/**
+	 * Decodes the result sent by the other peer to the result type of the method.
+	 * @param result the result.
+	 * @return the decoded result.
+	 * @throws RemoteCallException if the result cannot be converted.
+	 */
+	public Object decodeResult(Object result) {
+		if(_resultType == Void.TYPE || _resultType == Void.class)
+			return null;
+		
+		try {
+			return Helper.convertTo(result, _resultType);
+		} catch(ClassCastException e) {
+			throw new RemoteCallException("Unexpected result for " + _name + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * The InvocationHandler of the proxies created by JJsonPeer.createProxy (or LoadBalancedClient.createProxy): turns
+ * each call to a method of the interface into a request to the method with the same name on the other peer.
+ * Methods returning a CompletableFuture are asynchronous, the other ones block until the response arrives
+ * (or the timeout is reached) and throw a RemoteCallException if the call did not succeed.
+ * The methods annotated with Idempotent are marked as such on the sender, so that their requests are sent again after
+ * a reconnection.
+ * @author nbarraille
+ *
+ */
+public class RemoteProxy implements InvocationHandler {
+	private RequestSender _peer; // The peer (or load balanced client) to send the requests through.
+	private Class<?> _interface; // The proxied interface.
+	private Map<Method, RemoteMethod> _methods; // The remote methods, by method of the interface.
+	
+	/**
+	 * Creates the handler for a proxy interface, and checks that all its methods can be called remotely.
+	 * @param peer the peer (or load balanced client) to send the requests through.
+	 * @param iface the interface.
+	 * @throws IllegalArgumentException if iface is not an interface, or if the result of one of its methods cannot be decoded.
+	 */
+	public RemoteProxy(RequestSender peer, Class<?> iface) {
+		if(!iface.isInterface())
+			throw new IllegalArgumentException(iface.getName() + " is not an interface");
+		
+		_peer = peer;
+		_interface = iface;
+		_methods = new HashMap<Method, RemoteMethod>();
+		for(Method m : iface.getMethods()) {
+			_methods.put(m, new RemoteMethod(m));
+			if(m.isAnnotationPresent(Idempotent.class)) {
+				peer.addIdempotentMethod(m.getName());
+			}
+		}
+	}
+	
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		final RemoteMethod rm = _methods.get(method);
+		if(rm == null) {
+			// Methods of Object
+			if(method.getName().equals("equals")) {
+				return proxy == args[0];
+			} else if(method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if(method.getName().equals("toString")) {
+				return "Proxy of " + _interface.getName() + " through " + _peer;
+			}
+			return method.invoke(this, args);
+		}
+		
+		CompletableFuture<Object> future = _peer.sendRequest(rm.getName(), rm.encodeParams(args),
+				rm.isAsync() ? JJsonPeer.TIMEOUT_ASYNC : JJsonPeer.TIMEOUT_SYNC, true);
+		if(rm.isAsync()) {
+			return ClientStub.convert(future, new Function<Object, Object>() {
+				public Object apply(Object result) {
+					return rm.decodeResult(result);
+				}
+			});
+		}
+		
+		return rm.decodeResult(ClientStub.await(future, rm.getName()));
+	}
+}
@@ -0,0 +1,29 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends requests to remote methods: a JJsonPeer, or a LoadBalancedClient spreading them over several servers.
+ * The remote proxies send their requests through it (see RemoteProxy).
+ * @author nbarraille
+ *
+ */
+public interface RequestSender {
+	/**
+	 * Sends a request, see JJsonPeer.sendRequest.
+	 * @param methodName the name of the remote method.
+	 * @param args a List of arguments to execute the method with.
+	 * @param timeout how long (in ms) we wait for the response, 0 if there is no limit.
+	 * @param forceWait if too many requests are pending, and this is set to true, blocks the thread and retries until
+	 * this request can be sent.
+	 * @return the future result.
+	 */
+	public CompletableFuture<Object> sendRequest(String methodName, List<Object> args, int timeout, boolean forceWait);
+	
+	/**
+	 * Marks a remote method as idempotent, see JJsonPeer.addIdempotentMethod.
+	 * @param methodName the name of the remote method.
+	 */
+	public void addIdempotentMethod(String methodName);
+}
@@ -0,0 +1,153 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of the results of an API method, with a time to live.
+ * When full, the least recently used result is evicted.
+ * It keeps count of the hits and misses, for monitoring.
+ * Thread-safe.
+ * @author nbarraille
+ *
+ */
+public class ResultCache {
+	private int _maxSize; // The maximum number of results.
+	private long _ttl; // The time to live of a result in ms (0: forever).
+	private boolean _preserialize; // Should the encoded responses be cached too.
+	private LinkedHashMap<CallKey, Entry> _entries; // The results, in access order.
+	private AtomicLong _hits; // Number of successful lookups.
+	private AtomicLong _misses; // Number of failed lookups.
+	
+	/**
+	 * A cached result.
+	 */
+	public static class Entry {
+		private Object _result; // The result of the call (may be null).
+		private long _expiration; // The time at which this result expires (Long.MAX_VALUE: never).
+		private volatile String _frame; // The encoded response, without the ID and the closing brace (null: not encoded yet).
+		
+		private Entry(Object result, long expiration) {
+			_result = result;
+			_expiration = expiration;
+		}
+		
+		public Object getResult() {
+			return _result;
+		}
+		
+		public boolean isExpired(long now) {
+			return now >= _expiration;
+		}
+		
+		/**
+		 * Returns the encoded response for this result, up to the value of its ID, or null if it hasn't been encoded yet.
+		 */
+		public String getFrame() {
+			return _frame;
+		}
+		
+		public void setFrame(String frame) {
+			_frame = frame;
+		}
+	}
+	
+	/**
+	 * Creates a new cache.
+	 * @param maxSize the maximum number of results.
+	 * @param ttl the time to live of a result, in ms. 0 means forever.
+	 * @param preserialize true if the encoded responses should be cached along with the results.
+	 */
+	public ResultCache(int maxSize, long ttl, boolean preserialize) {
+		_maxSize = maxSize;
+		_ttl = ttl;
+		_preserialize = preserialize;
+		_hits = new AtomicLong();
+		_misses = new AtomicLong();
+		_entries = new LinkedHashMap<CallKey, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2417405286322519311L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CallKey, Entry> eldest) {
+				return size() > _maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Returns true if the encoded responses should be cached along with the results (see Entry.getFrame).
+	 */
+	public boolean isPreserialized() {
+		return _preserialize;
+	}
+	
+	/**
+	 * Returns the cached result of the given call, or null if there is none or if it has expired.
+	 * @param key the call.
+	 * @return the entry containing the result, or null.
+	 */
+	public Entry get(CallKey key) {
+		Entry e;
+		synchronized(_entries) {
+			e = _entries.get(key);
+			if(e != null && e.isExpired(System.currentTimeMillis())) {
+				_entries.remove(key);
+				e = null;
+			}
+		}
+		
+		if(e == null) {
+			_misses.incrementAndGet();
+		} else {
+			_hits.incrementAndGet();
+		}
+		return e;
+	}
+	
+	/**
+	 * Caches the result of a call.
+	 * @param key the call.
+	 * @param result the result.
+	 * @return the new entry.
+	 */
+	public Entry put(CallKey key, Object result) {
+		Entry e = new Entry(result, _ttl > 0 ? System.currentTimeMillis() + _ttl : Long.MAX_VALUE);
+		synchronized(_entries) {
+			_entries.put(key, e);
+		}
+		return e;
+	}
+	
+	/**
+	 * Removes all the results from the cache.
+	 */
+	public void clear() {
+		synchronized(_entries) {
+			_entries.clear();
+		}
+	}
+	
+	public int size() {
+		synchronized(_entries) {
+			return _entries.size();
+		}
+	}
+	
+	public long getHits() {
+		return _hits.get();
+	}
+	
+	public long getMisses() {
+		return _misses.get();
+	}
+	
+	/**
+	 * Returns the proportion of lookups that found a result, between 0 and 1.
+	 */
+	public double getHitRatio() {
+		long hits = _hits.get();
+		long total = hits + _misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+}
@@ -0,0 +1,77 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A ResultStream is the server side of a streamed response: the Iterator returned by a method, and the number
+ * of chunks the requesting peer is ready to receive (its credits).
+ * The chunks are only pulled from the Iterator when they can be sent, so the whole result is never held in memory.
+ * @author nbarraille
+ *
+ */
+public class ResultStream {
+	private long _id; // The ID of the request being answered.
+	private Iterator<?> _iterator; // The remaining items.
+	private int _credits; // The number of chunks that can be sent before the other peer asks for more.
+	private long _count; // The number of items sent so far.
+	private volatile long _lastActivity; // The time at which the stream has been created or has received credits.
+	
+	public ResultStream(long id, Iterator<?> iterator, int initialCredits) {
+		_id = id;
+		_iterator = iterator;
+		_credits = initialCredits;
+		_count = 0;
+		_lastActivity = System.currentTimeMillis();
+	}
+	
+	public long getId() {
+		return _id;
+	}
+	
+	public long getCount() {
+		return _count;
+	}
+	
+	public void addCredits(int credits) {
+		_credits += credits;
+		_lastActivity = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Returns the time at which the stream has been created, or has last received credits.
+	 */
+	public long getLastActivity() {
+		return _lastActivity;
+	}
+	
+	/**
+	 * Returns true if a chunk can be sent right now.
+	 */
+	public boolean canSend() {
+		return _credits > 0 && _iterator.hasNext();
+	}
+	
+	/**
+	 * Returns true if all the items have been sent.
+	 */
+	public boolean isExhausted() {
+		return !_iterator.hasNext();
+	}
+	
+	/**
+	 * Pulls the next chunk from the Iterator, and consumes one credit.
+	 * @param maxSize the maximum number of items in the chunk.
+	 * @return the chunk.
+	 */
+	public List<Object> nextChunk(int maxSize) {
+		List<Object> chunk = new ArrayList<Object>(maxSize);
+		while(chunk.size() < maxSize && _iterator.hasNext()) {
+			chunk.add(Helper.encode(_iterator.next()));
+		}
+		_count += chunk.size();
+		_credits--;
+		return chunk;
+	}
+}
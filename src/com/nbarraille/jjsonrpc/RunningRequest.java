@@ -0,0 +1,145 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+
+/**
+ * A running request is a request received from the other peer that the local peer has not answered yet.
+ * It expires when the other peer stops waiting for the response, if it has told how long it waits.
+ * It can be cancelled by the other peer: the thread executing the method is then interrupted (if allowed), the
+ * future returned by an asynchronous method is cancelled, and no response is sent.
+ * Thread-safe.
+ * @author nbarraille
+ *
+ */
+public class RunningRequest {
+	private long _id; // The ID of the request.
+	private long _receivedTime; // The time at which the request has been received.
+	private long _deadline; // The time after which the other peer stops waiting for the response, 0 if none.
+	private volatile boolean _cancelled; // Has the other peer cancelled the request.
+	private Thread _thread; // The thread executing the method that can be interrupted, null if none.
+	private CompletionStage<?> _stage; // The result of the method if it is asynchronous and not shared, null otherwise.
+	private boolean _async; // Has the method returned a CompletionStage.
+	private AdmissionControl _admission; // The admission control counting this request as executing, null if none.
+	private boolean _ended; // Has the request been answered (or cancelled).
+
+	public RunningRequest(long id, long deadline) {
+		_id = id;
+		_receivedTime = System.currentTimeMillis();
+		_deadline = deadline;
+		_cancelled = false;
+	}
+
+	public long getId() {
+		return _id;
+	}
+
+	public long getReceivedTime() {
+		return _receivedTime;
+	}
+
+	public long getDeadline() {
+		return _deadline;
+	}
+
+	/**
+	 * Returns true if the other peer has stopped waiting for the response.
+	 */
+	public boolean isExpired() {
+		return _deadline != 0 && System.currentTimeMillis() > _deadline;
+	}
+
+	public boolean isCancelled() {
+		return _cancelled;
+	}
+
+	/**
+	 * Lets cancel() interrupt the current thread, until finish() is called.
+	 * @return false if the request has already been cancelled, and should not be executed.
+	 */
+	public synchronized boolean allowInterrupt() {
+		if(_cancelled)
+			return false;
+		_thread = Thread.currentThread();
+		return true;
+	}
+
+	/**
+	 * Sets the result of an asynchronous method, so that it can be cancelled too.
+	 * @param stage the CompletionStage returned by the method.
+	 */
+	public synchronized void setStage(CompletionStage<?> stage) {
+		_stage = stage;
+		_async = true;
+		if(_cancelled && stage instanceof Future) {
+			((Future<?>) stage).cancel(true);
+		}
+	}
+
+	/**
+	 * Marks the request as asynchronous, when the CompletionStage returned by the method must not be cancelled with
+	 * it (because it is shared with other requests, see SingleFlight).
+	 */
+	public synchronized void setAsync() {
+		_async = true;
+	}
+	
+	/**
+	 * Returns true if the method has returned a CompletionStage, the request is then answered when it completes.
+	 */
+	public synchronized boolean isAsync() {
+		return _async;
+	}
+
+	/**
+	 * Ends the execution of the method by the current thread: it cannot be interrupted anymore, and an interrupt
+	 * caused by a cancellation is cleared so that it does not affect the next task of the thread.
+	 */
+	public void finish() {
+		synchronized(this) {
+			_thread = null;
+		}
+		if(_cancelled) {
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * Cancels the request.
+	 */
+	public synchronized void cancel() {
+		_cancelled = true;
+		if(_thread != null) {
+			_thread.interrupt();
+		}
+		if(_stage instanceof Future) {
+			((Future<?>) _stage).cancel(true);
+		}
+	}
+
+	/**
+	 * Sets the admission control that counts this request as executing, until end() is called.
+	 * @param admission the admission control.
+	 */
+	public synchronized void setAdmission(AdmissionControl admission) {
+		_admission = admission;
+	}
+
+	/**
+	 * Ends the request, once it has been answered or cancelled. Only the first call has an effect.
+	 * @return true if the request was not ended yet.
+	 */
+	public boolean end() {
+		AdmissionControl admission;
+		synchronized(this) {
+			if(_ended)
+				return false;
+			_ended = true;
+			admission = _admission;
+		}
+		if(admission != null) {
+			admission.release();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,21 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of an API class whose concurrent calls with the same parameters can share a single execution.
+ * When a peer receives a request for such a method while an identical call is already running (for any peer using
+ * the same API class), it waits for that call to finish and answers with its result instead of invoking the method
+ * again.
+ * Methods returning an Iterator are never coalesced, as an Iterator cannot be consumed twice.
+ * 
+ * @author nbarraille
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SingleFlight {
+}
@@ -12,13 +12,17 @@ public class SocketListener extends Thread {
 	private int _port;
 	private ServerSocket _socket;
 	private TcpServer _server;
-	private Class<?> _apiClass;
+	private ApiDefinition _api;
 	
 	public SocketListener(int port, TcpServer server, Class<?> apiClass) {
+		this(port, server, ApiDefinition.forClass(apiClass));
+	}
+	
+	public SocketListener(int port, TcpServer server, ApiDefinition api) {
 		_port = port;
 		_socket = null;
 		_server = server;
-		_apiClass = apiClass;
+		_api = api;
 	}
 	
 	public void run() {
@@ -31,8 +35,9 @@ public class SocketListener extends Thread {
 		while(true) {
 			try {
 				Socket connected = _socket.accept();
-				JJsonPeer jp = new JJsonPeer(connected, _apiClass);
+				JJsonPeer jp = new JJsonPeer(connected, _api);
 				_log.log(Level.INFO, "New client connected on port " + connected.getPort());
+				_server.configurePeer(jp);
 				_server.addPeer(jp);
 				jp.start();
 				
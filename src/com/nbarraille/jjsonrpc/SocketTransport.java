@@ -0,0 +1,86 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * A Transport over a TCP Socket.
+ * The socket is read and written through its streams, so the direct buffers of a pool are copied through a small array.
+ * @author nbarraille
+ *
+ */
+public class SocketTransport extends FramedTransport {
+	private Socket _socket; // The socket used to communicate.
+	private InputStream _in; // The InputStream of the socket.
+	private OutputStream _out; // The OutputStream of the socket.
+	private byte[] _readArray; // Receives the bytes read when the buffer is direct, created lazily (reading thread only).
+	private byte[] _writeArray; // Holds the bytes written when the buffer is direct, created lazily (writing thread only).
+	
+	/**
+	 * Creates a new Transport over the given socket.
+	 * @param socket the connected socket.
+	 * @throws IOException if the Socket is closed or not connected.
+	 */
+	public SocketTransport(Socket socket) throws IOException {
+		_socket = socket;
+		_in = socket.getInputStream();
+		_out = socket.getOutputStream();
+	}
+	
+	/**
+	 * Returns the Socket of this transport.
+	 * @return the Socket.
+	 */
+	public Socket getSocket() {
+		return _socket;
+	}
+	
+	protected int read(ByteBuffer dst) throws IOException {
+		if(!dst.hasArray()) {
+			if(_readArray == null) {
+				_readArray = new byte[BufferPool.MIN_SIZE];
+			}
+			int n = _in.read(_readArray, 0, Math.min(_readArray.length, dst.remaining()));
+			if(n > 0) {
+				dst.put(_readArray, 0, n);
+			}
+			return n;
+		}
+		
+		int n = _in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+		if(n > 0) {
+			dst.position(dst.position() + n);
+		}
+		return n;
+	}
+	
+	protected void write(ByteBuffer src) throws IOException {
+		if(!src.hasArray()) {
+			if(_writeArray == null) {
+				_writeArray = new byte[BufferPool.MIN_SIZE];
+			}
+			while(src.hasRemaining()) {
+				int n = Math.min(_writeArray.length, src.remaining());
+				src.get(_writeArray, 0, n);
+				_out.write(_writeArray, 0, n);
+			}
+			_out.flush();
+			return;
+		}
+		
+		_out.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+		_out.flush();
+		src.position(src.limit());
+	}
+	
+	public void close() throws IOException {
+		_socket.close();
+	}
+	
+	public String getRemoteAddress() {
+		return _socket.getInetAddress().getHostAddress() + ":" + _socket.getPort();
+	}
+}
@@ -0,0 +1,31 @@
+package com.nbarraille.jjsonrpc;
+
+import java.util.List;
+
+/**
+ * A StreamHandler consumes, chunk by chunk, the result of a request whose remote method returned an Iterator.
+ * The methods are called by the thread reading the socket, in order, so they should return quickly: the next
+ * chunk is only requested from the other peer once onChunk has returned.
+ * @author nbarraille
+ *
+ */
+public interface StreamHandler {
+	
+	/**
+	 * Called for each chunk of the result.
+	 * @param items the items of this chunk, in the order the remote Iterator returned them.
+	 */
+	public void onChunk(List<Object> items);
+	
+	/**
+	 * Called once all the chunks have been received.
+	 * @param count the total number of items streamed.
+	 */
+	public void onComplete(long count);
+	
+	/**
+	 * Called if the request failed, before or while streaming. No other method will be called after this one.
+	 * @param error the error.
+	 */
+	public void onError(RemoteError error);
+}
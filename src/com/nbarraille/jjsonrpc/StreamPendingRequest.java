@@ -0,0 +1,16 @@
+package com.nbarraille.jjsonrpc;
+
+
+public class StreamPendingRequest extends PendingRequest {
+	private StreamHandler _handler; // The handler consuming the chunks
+	
+	public StreamPendingRequest(long id, StreamHandler handler) {
+		super(id);
+		_handler = handler;
+	}
+	
+	public StreamHandler getHandler() {
+		return _handler;
+	}
+
+}
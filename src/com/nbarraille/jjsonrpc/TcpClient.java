@@ -14,6 +14,8 @@ import java.util.logging.Logger;
 public class TcpClient {
 	private Logger _log = Logger.getLogger(this.getClass().getCanonicalName()); // The logger object.
 	private JJsonPeer _peer; // The JJson Peer
+	private String _serverAddress; // The address of the server.
+	private int _serverPort; // The port of the server.
 	
 	/**
 	 * Creates a new TCP Socket by connecting to a SocketServer, and creates a JJsonPeer that will use this socket to communicate.
@@ -24,11 +26,79 @@ public class TcpClient {
 	 * @throws IOException if an I/O exception occurs while creating the Socket.
 	 */
 	public TcpClient(String serverAddress, int serverListenerPort, Class<?> apiClass) throws UnknownHostException, IOException {
-		_peer = new JJsonPeer(new Socket(serverAddress, serverListenerPort), apiClass);
+		this(serverAddress, serverListenerPort, ApiDefinition.forClass(apiClass));
+	}
+	
+	/**
+	 * Creates a new TCP Socket by connecting to a SocketServer, and creates a JJsonPeer that will use this socket to communicate.
+	 * @param serverAddress the address of the SocketServer to connect too.
+	 * @param serverListenerPort the port of the SocketServer to connect too.
+	 * @param api the local methods that the other peer can execute (for instance a dispatcher generated at build time,
+	 * see JsonRpcApi).
+	 * @throws UnknownHostException the provided serverAddress or serverPort cannot be found.
+	 * @throws IOException if an I/O exception occurs while creating the Socket.
+	 */
+	public TcpClient(String serverAddress, int serverListenerPort, ApiDefinition api) throws UnknownHostException, IOException {
+		this(serverAddress, serverListenerPort, api, false);
+	}
+	
+	/**
+	 * Creates a new TCP Socket by connecting to a SocketServer, and creates a JJsonPeer that will use this socket to communicate.
+	 * @param serverAddress the address of the SocketServer to connect too.
+	 * @param serverListenerPort the port of the SocketServer to connect too.
+	 * @param api the local methods that the other peer can execute.
+	 * @param virtualThreads true to run the peer, and the requests it receives, on virtual threads
+	 * (see JJsonPeer.setVirtualThreads).
+	 * @throws UnknownHostException the provided serverAddress or serverPort cannot be found.
+	 * @throws IOException if an I/O exception occurs while creating the Socket.
+	 */
+	public TcpClient(String serverAddress, int serverListenerPort, ApiDefinition api, boolean virtualThreads)
+			throws UnknownHostException, IOException {
+		_serverAddress = serverAddress;
+		_serverPort = serverListenerPort;
+		_peer = new JJsonPeer(new Socket(serverAddress, serverListenerPort), api);
+		_peer.setVirtualThreads(virtualThreads);
 		_log.log(Level.INFO, "TCP Client started");
 		_peer.start();
 	}
 	
+	/**
+	 * Creates a JJsonPeer that connects to a SocketServer in the background, and reconnects when the connection is
+	 * lost (see setReconnect). It does not fail if the server cannot be reached yet: the first attempt is made right
+	 * away, the next ones are spaced by an exponential backoff. The requests made before the connection is opened are
+	 * handled like the requests made while reconnecting.
+	 * @param serverAddress the address of the SocketServer to connect to.
+	 * @param serverListenerPort the port of the SocketServer to connect to.
+	 * @param api the local methods that the other peer can execute.
+	 * @param reconnectDelay the delay (in ms) before the second attempt, doubled after each failure.
+	 * @param maxReconnectDelay the maximum delay (in ms) between two attempts.
+	 */
+	public TcpClient(String serverAddress, int serverListenerPort, ApiDefinition api, long reconnectDelay,
+			long maxReconnectDelay) {
+		_serverAddress = serverAddress;
+		_serverPort = serverListenerPort;
+		_peer = new JJsonPeer(new DisconnectedTransport(serverAddress + ":" + serverListenerPort), api);
+		setReconnect(reconnectDelay, maxReconnectDelay);
+		_log.log(Level.INFO, "TCP Client started, connecting in the background");
+		_peer.start();
+	}
+	
+	/**
+	 * Makes the client reconnect to the server when the connection is lost, instead of closing its peer.
+	 * The first attempt is made right away, the next ones are spaced by an exponential backoff.
+	 * The requests to the idempotent methods (see Idempotent) still waiting for a response are sent again once
+	 * reconnected, the other ones fail with a Connection Closed error (see JJsonPeer.setReconnect).
+	 * @param initialDelay the delay (in ms) before the second attempt, doubled after each failure.
+	 * @param maxDelay the maximum delay (in ms) between two attempts.
+	 */
+	public void setReconnect(long initialDelay, long maxDelay) {
+		_peer.setReconnect(new Connector() {
+			public Transport connect() throws IOException {
+				return new SocketTransport(new Socket(_serverAddress, _serverPort));
+			}
+		}, initialDelay, maxDelay);
+	}
+	
 	/**
 	 * Returns this client's peer.
 	 * @return the JJsonPeer of this client.
@@ -0,0 +1,41 @@
+package com.nbarraille.jjsonrpc;
+
+/**
+ * A token bucket limits the rate of the requests accepted from a peer: each request takes a token, and the tokens
+ * are refilled at a constant rate up to the size of the bucket, so that short bursts are accepted.
+ * Thread-safe.
+ * @author nbarraille
+ *
+ */
+public class TokenBucket {
+	private double _rate; // The number of tokens added per millisecond.
+	private double _capacity; // The maximum number of tokens (the size of the bursts).
+	private double _tokens; // The number of tokens available.
+	private long _lastRefill; // The time of the last refill, in ns.
+
+	/**
+	 * Creates a full token bucket.
+	 * @param requestsPerSecond the number of requests accepted per second, in the long run.
+	 * @param burst the number of requests that can be accepted at once.
+	 */
+	public TokenBucket(double requestsPerSecond, int burst) {
+		_rate = requestsPerSecond / 1000;
+		_capacity = Math.max(1, burst);
+		_tokens = _capacity;
+		_lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes a token, if there is one.
+	 * @return true if a token has been taken, false if the request should be rejected.
+	 */
+	public synchronized boolean tryAcquire() {
+		long now = System.nanoTime();
+		_tokens = Math.min(_capacity, _tokens + (now - _lastRefill) / 1000000.0 * _rate);
+		_lastRefill = now;
+		if(_tokens < 1)
+			return false;
+		_tokens--;
+		return true;
+	}
+}
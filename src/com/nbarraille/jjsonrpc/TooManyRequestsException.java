@@ -0,0 +1,15 @@
+package com.nbarraille.jjsonrpc;
+
+/**
+ * Thrown by the requests that have not been sent, because too many requests were already waiting for a response
+ * from the other peer (see JJsonPeer.sendRequest). The other peer has not seen them.
+ * @author nbarraille
+ *
+ */
+public class TooManyRequestsException extends RemoteCallException {
+	private static final long serialVersionUID = 2286013949371864503L;
+
+	public TooManyRequestsException() {
+		super("Too many pending requests");
+	}
+}
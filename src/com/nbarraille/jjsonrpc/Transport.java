@@ -0,0 +1,37 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+
+/**
+ * A Transport carries the frames (the JSON-RPC messages) exchanged by a JJsonPeer and the other peer.
+ * A frame is read by a single thread (the thread of the peer), and written by one thread at a time (the peer
+ * serializes its writes).
+ * @author nbarraille
+ *
+ */
+public interface Transport {
+	/**
+	 * Reads the next frame sent by the other peer, blocking until it is completely received.
+	 * @return the frame, or null if the other peer has closed the connection.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public String readFrame() throws IOException;
+	
+	/**
+	 * Sends a frame to the other peer.
+	 * @param frame the frame to send, without end of message character.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void writeFrame(String frame) throws IOException;
+	
+	/**
+	 * Closes the connection. A thread blocked in readFrame then returns.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void close() throws IOException;
+	
+	/**
+	 * Describes the other end of the connection, for the logs.
+	 */
+	public String getRemoteAddress();
+}
@@ -0,0 +1,79 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A Client connecting to a UnixServer running on the same host, that creates a JJsonPeer.
+ * It is used like a TcpClient, and requires Java 16 or later.
+ * @author nbarraille
+ *
+ */
+public class UnixClient {
+	private Logger _log = Logger.getLogger(this.getClass().getCanonicalName()); // The logger object.
+	private JJsonPeer _peer; // The JJson Peer
+	private Path _path; // The path of the socket file of the server.
+	
+	/**
+	 * Connects to the UnixServer listening on the given socket file, and creates a JJsonPeer communicating through it.
+	 * @param path the path of the socket file of the server.
+	 * @param apiClass the local "API Class", where all the methods that the other Peer can execute are.
+	 * @throws IOException if the connection fails.
+	 */
+	public UnixClient(Path path, Class<?> apiClass) throws IOException {
+		this(path, ApiDefinition.forClass(apiClass));
+	}
+	
+	/**
+	 * Connects to the UnixServer listening on the given socket file, and creates a JJsonPeer communicating through it.
+	 * @param path the path of the socket file of the server.
+	 * @param api the local methods that the other peer can execute.
+	 * @throws IOException if the connection fails.
+	 */
+	public UnixClient(Path path, ApiDefinition api) throws IOException {
+		this(path, api, false);
+	}
+	
+	/**
+	 * Connects to the UnixServer listening on the given socket file, and creates a JJsonPeer communicating through it.
+	 * @param path the path of the socket file of the server.
+	 * @param api the local methods that the other peer can execute.
+	 * @param virtualThreads true to run the peer, and the requests it receives, on virtual threads
+	 * (see JJsonPeer.setVirtualThreads).
+	 * @throws IOException if the connection fails.
+	 */
+	public UnixClient(Path path, ApiDefinition api, boolean virtualThreads) throws IOException {
+		_path = path;
+		_peer = new JJsonPeer(new ChannelTransport(SocketChannel.open(UnixDomainSocketAddress.of(path))), api);
+		_peer.setVirtualThreads(virtualThreads);
+		_log.log(Level.INFO, "Unix Client started");
+		_peer.start();
+	}
+	
+	/**
+	 * Makes the client reconnect to the server when the connection is lost, instead of closing its peer
+	 * (see TcpClient.setReconnect).
+	 * @param initialDelay the delay (in ms) before the second attempt, doubled after each failure.
+	 * @param maxDelay the maximum delay (in ms) between two attempts.
+	 */
+	public void setReconnect(long initialDelay, long maxDelay) {
+		_peer.setReconnect(new Connector() {
+			public Transport connect() throws IOException {
+				return new ChannelTransport(SocketChannel.open(UnixDomainSocketAddress.of(_path)));
+			}
+		}, initialDelay, maxDelay);
+	}
+	
+	/**
+	 * Returns this client's peer.
+	 * @return the JJsonPeer of this client.
+	 */
+	public JJsonPeer getPeer() {
+		return _peer;
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.nbarraille.jjsonrpc;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts the connections to a Unix domain socket, and creates a JJsonPeer for each of them (see UnixServer).
+ * @author nbarraille
+ *
+ */
+public class UnixSocketListener extends Thread {
+	private Logger _log = Logger.getLogger(this.getClass().getCanonicalName()); // The logger object.
+	
+	private Path _path;
+	private ServerSocketChannel _channel;
+	private UnixServer _server;
+	private ApiDefinition _api;
+	
+	public UnixSocketListener(Path path, UnixServer server, ApiDefinition api) {
+		_path = path;
+		_channel = null;
+		_server = server;
+		_api = api;
+	}
+	
+	/**
+	 * Deletes the socket file left at the path by a previous server, if nothing listens on it anymore.
+	 * Any other file is left untouched.
+	 * @return false if the path is used by another file, or by a server still running.
+	 * @throws IOException if the socket file cannot be deleted.
+	 */
+	private boolean deleteStaleSocket() throws IOException {
+		if(!Files.exists(_path, LinkOption.NOFOLLOW_LINKS))
+			return true;
+		
+		if(Files.isRegularFile(_path, LinkOption.NOFOLLOW_LINKS) || Files.isDirectory(_path, LinkOption.NOFOLLOW_LINKS)
+				|| Files.isSymbolicLink(_path)) {
+			_log.log(Level.SEVERE, "Cannot listen on " + _path + ": the path exists and is not a socket");
+			return false;
+		}
+		
+		try {
+			SocketChannel.open(UnixDomainSocketAddress.of(_path)).close();
+			_log.log(Level.SEVERE, "Cannot listen on " + _path + ": another server is listening on it");
+			return false;
+		} catch(IOException e) {
+			// Nobody accepts the connections anymore
+		}
+		Files.delete(_path);
+		return true;
+	}
+	
+	public void run() {
+		try {
+			// The socket of a previous server that has not been closed properly would prevent the bind
+			if(!deleteStaleSocket()) {
+				return;
+			}
+			_channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			_channel.bind(UnixDomainSocketAddress.of(_path));
+		} catch (IOException e1) {
+			e1.printStackTrace();
+			return;
+		}
+		
+		while(true) {
+			try {
+				SocketChannel connected = _channel.accept();
+				JJsonPeer jp = new JJsonPeer(new ChannelTransport(connected), _api);
+				_log.log(Level.INFO, "New client connected on " + _path);
+				_server.configurePeer(jp);
+				_server.addPeer(jp);
+				jp.start();
+				
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.nbarraille.jjsonrpc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the threads of the peers running on virtual threads (see JJsonPeer.setVirtualThreads).
+ * Virtual threads are only available from Java 21, they are looked up at runtime so that the library still runs on
+ * older versions: the peers then fall back to platform threads.
+ * @author nbarraille
+ *
+ */
+public class VirtualThreads {
+	private final static String THREAD_NAME_PREFIX = "JJsonPeer-virtual-";
+
+	private static Logger _log = Logger.getLogger(VirtualThreads.class.getCanonicalName()); // The logger object.
+	private static ThreadFactory _factory = createFactory(); // Creates the virtual threads, null if not supported.
+	private static Executor _executor; // Runs each task in a new virtual thread, created lazily.
+
+	/**
+	 * Returns true if virtual threads are supported by the running JVM.
+	 */
+	public static boolean isSupported() {
+		return _factory != null;
+	}
+
+	/**
+	 * Returns a factory of virtual threads, or null if they are not supported.
+	 */
+	public static ThreadFactory getFactory() {
+		return _factory;
+	}
+
+	/**
+	 * Returns an executor running each task in a new virtual thread. If virtual threads are not supported, returns
+	 * a shared pool of platform daemon threads instead.
+	 * @return the executor.
+	 */
+	public static Executor getExecutor() {
+		synchronized(VirtualThreads.class) {
+			if(_executor == null) {
+				if(_factory != null) {
+					_executor = new Executor() {
+						public void execute(Runnable task) {
+							_factory.newThread(task).start();
+						}
+					};
+				} else {
+					_log.log(Level.WARNING, "Virtual threads are not supported by this JVM, using platform threads");
+					_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "JJsonPeer request");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+				}
+			}
+			return _executor;
+		}
+	}
+
+	/**
+	 * Builds a factory of virtual threads, with Thread.ofVirtual().name(prefix, 0).factory().
+	 * @return the factory, or null if virtual threads are not supported.
+	 */
+	private static ThreadFactory createFactory() {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 0L);
+			Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch(Exception e) {
+			// Before Java 21 (or with preview features disabled on Java 19 and 20)
+			return null;
+		}
+	}
+}
@@ -1,8 +1,8 @@
 package com.nbarraille.jjsonrpc;
 
 public class WaitingPendingRequest extends PendingRequest {
-	private Object _result; // The result arrived for this request (null : not arrived yet)
-	private RemoteError _error; // Did a error response arrive for this request.
+	private volatile Object _result; // The result arrived for this request (null : not arrived yet)
+	private volatile RemoteError _error; // Did a error response arrive for this request.
 	
 	public WaitingPendingRequest(long id) {
 		super(id);
@@ -46,6 +46,12 @@ public class ExampleClient {
 				e.printStackTrace();
 			}
 			
+			// The same calls, through a typed proxy
+			RemoteServerApi server = peer.createProxy(RemoteServerApi.class);
+			System.out.println("The result of the multiplication is " + server.multiply(1.4, 2.0));
+			System.out.println("The result of the addition is " + server.add(987, 1234).get());
+			System.out.println("The current time is " + server.gimmeTheTime());
+			
 			return;
 			
 		} catch (UnknownHostException e) {
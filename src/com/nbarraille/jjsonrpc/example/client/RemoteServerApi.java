@@ -0,0 +1,15 @@
+package com.nbarraille.jjsonrpc.example.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The part of the server API used by the client, to create a typed proxy (see JJsonPeer.createProxy).
+ */
+public interface RemoteServerApi {
+	
+	public double multiply(double a, double b);
+	
+	public CompletableFuture<Long> add(long a, long b);
+	
+	public long gimmeTheTime();
+}
@@ -1,5 +1,9 @@
 package com.nbarraille.jjsonrpc.example.server;
 
+import com.nbarraille.jjsonrpc.Cacheable;
+import com.nbarraille.jjsonrpc.JsonRpcApi;
+
+@JsonRpcApi
 public class ServerApi {
 
 	/**
@@ -17,6 +21,10 @@ public class ServerApi {
 		return a + b;
 	}
 	
+	/**
+	 * Test method whose result only depends on its arguments, and can be cached
+	 */
+	@Cacheable(maxSize = 100, ttl = 0)
 	public static double multiply(double a, double b) {
 		return a * b;
 	}
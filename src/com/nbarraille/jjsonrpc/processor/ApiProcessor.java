@@ -0,0 +1,383 @@
+package com.nbarraille.jjsonrpc.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import com.nbarraille.jjsonrpc.ApiDefinition;
+import com.nbarraille.jjsonrpc.Bulkhead;
+import com.nbarraille.jjsonrpc.Cacheable;
+import com.nbarraille.jjsonrpc.Idempotent;
+import com.nbarraille.jjsonrpc.Lane;
+import com.nbarraille.jjsonrpc.Param;
+import com.nbarraille.jjsonrpc.SingleFlight;
+
+/**
+ * Generates, for each class annotated with JsonRpcApi, a dispatcher (an ApiDefinition calling the methods through a
+ * switch) and a client stub (a ClientStub with a typed method for each method of the API), so that the peers
+ * never have to use reflection on the API class.
+ * Only the public static methods are part of the API, like with the reflective ApiDefinition.
+ *
+ * @author nbarraille
+ *
+ */
+@SupportedAnnotationTypes("com.nbarraille.jjsonrpc.JsonRpcApi")
+public class ApiProcessor extends AbstractProcessor {
+	private final static String STUB_SUFFIX = "Stub"; // Suffix of the generated stubs class names.
+	private final static String ASYNC_SUFFIX = "Async"; // Suffix of the asynchronous methods of the stubs.
+
+	private Map<String, Bulkhead> _lanes = new HashMap<String, Bulkhead>(); // The lanes declared so far, by name.
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for(TypeElement annotation : annotations) {
+			for(Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+				if(e.getKind() != ElementKind.CLASS) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Only classes can be JsonRpcApi", e);
+					continue;
+				}
+
+				TypeElement api = (TypeElement) e;
+				List<ExecutableElement> methods = getApiMethods(api);
+				try {
+					writeDispatcher(api, methods);
+					writeStub(api, methods);
+				} catch(IOException ex) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+							"Cannot generate the code for this API: " + ex.getMessage(), e);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the public static methods of an API class (including the inherited ones).
+	 * @param api the API class.
+	 * @return the methods of the API.
+	 */
+	private List<ExecutableElement> getApiMethods(TypeElement api) {
+		List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+		for(Element member : processingEnv.getElementUtils().getAllMembers(api)) {
+			if(member.getKind() == ElementKind.METHOD && member.getModifiers().contains(Modifier.PUBLIC)
+					&& member.getModifiers().contains(Modifier.STATIC)) {
+				methods.add((ExecutableElement) member);
+			}
+		}
+		return methods;
+	}
+
+	/**
+	 * Writes the dispatcher of an API class.
+	 * @param api the API class.
+	 * @param methods the methods of the API.
+	 * @throws IOException if the source file cannot be written.
+	 */
+	private void writeDispatcher(TypeElement api, List<ExecutableElement> methods) throws IOException {
+		String apiName = api.getQualifiedName().toString();
+		String name = api.getSimpleName() + ApiDefinition.DISPATCHER_SUFFIX;
+		PrintWriter w = new PrintWriter(processingEnv.getFiler().createSourceFile(
+				getPackage(api).isEmpty() ? name : getPackage(api) + "." + name, api).openWriter());
+
+		writeHeader(w, api);
+		w.println("public final class " + name + " extends com.nbarraille.jjsonrpc.ApiDefinition {");
+		w.println("\tpublic final static " + name + " INSTANCE = new " + name + "();");
+		w.println();
+		w.println("\tprivate " + name + "() {");
+		w.println("\t\tsuper(" + apiName + ".class, new com.nbarraille.jjsonrpc.ApiMethod[] {");
+		for(int i = 0; i < methods.size(); i++) {
+			ExecutableElement m = methods.get(i);
+			w.println("\t\t\tnew DispatchedMethod(" + i + ", \"" + m.getSimpleName() + "\", new Class<?>[] {"
+					+ getParameterClasses(m) + "}, new String[] {" + getParameterNames(m) + "}, " + getCache(m) + ", "
+					+ isSingleFlight(m) + ", " + getLane(m) + "),");
+		}
+		w.println("\t\t});");
+		w.println("\t}");
+		w.println();
+		w.println("\t@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+		w.println("\tprivate static Object dispatch(int index, Object[] p) throws java.lang.reflect.InvocationTargetException {");
+		w.println("\t\tswitch(index) {");
+		for(int i = 0; i < methods.size(); i++) {
+			ExecutableElement m = methods.get(i);
+			StringBuilder call = new StringBuilder(apiName + "." + m.getSimpleName() + "(");
+			List<? extends VariableElement> params = m.getParameters();
+			w.println("\t\tcase " + i + ": {");
+			for(int j = 0; j < params.size(); j++) {
+				w.println("\t\t\t" + getErasure(params.get(j).asType()) + " p" + j + ";");
+				call.append(j == 0 ? "" : ", ").append("p" + j);
+			}
+			call.append(")");
+
+			// Like Method.invoke, parameters of the wrong type are an IllegalArgumentException, not an exception of the method
+			if(!params.isEmpty()) {
+				w.println("\t\t\ttry {");
+				for(int j = 0; j < params.size(); j++) {
+					w.println("\t\t\t\tp" + j + " = " + getParameterCast(params.get(j).asType(), "p[" + j + "]") + ";");
+				}
+				w.println("\t\t\t} catch(RuntimeException e) {");
+				w.println("\t\t\t\tthrow new IllegalArgumentException(\"Invalid parameters\", e);");
+				w.println("\t\t\t}");
+			}
+			w.println("\t\t\ttry {");
+			if(m.getReturnType().getKind() == TypeKind.VOID) {
+				w.println("\t\t\t\t" + call + ";");
+				w.println("\t\t\t\treturn null;");
+			} else {
+				w.println("\t\t\t\treturn " + call + ";");
+			}
+			w.println("\t\t\t} catch(Throwable t) {");
+			w.println("\t\t\t\tthrow new java.lang.reflect.InvocationTargetException(t);");
+			w.println("\t\t\t}");
+			w.println("\t\t}");
+		}
+		w.println("\t\tdefault:");
+		w.println("\t\t\tthrow new IllegalArgumentException(\"Unknown method \" + index);");
+		w.println("\t\t}");
+		w.println("\t}");
+		w.println();
+		w.println("\tprivate static class DispatchedMethod extends com.nbarraille.jjsonrpc.ApiMethod {");
+		w.println("\t\tprivate int _index;");
+		w.println();
+		w.println("\t\tprivate DispatchedMethod(int index, String name, Class<?>[] types, String[] names, "
+				+ "com.nbarraille.jjsonrpc.ResultCache cache, boolean singleFlight, com.nbarraille.jjsonrpc.Lane lane) {");
+		w.println("\t\t\tsuper(name, types, names, cache, singleFlight, lane);");
+		w.println("\t\t\t_index = index;");
+		w.println("\t\t}");
+		w.println();
+		w.println("\t\t@Override");
+		w.println("\t\tpublic Object invoke(Object[] params) throws java.lang.reflect.InvocationTargetException {");
+		w.println("\t\t\treturn dispatch(_index, params);");
+		w.println("\t\t}");
+		w.println("\t}");
+		w.println("}");
+		w.close();
+	}
+
+	/**
+	 * Writes the client stub of an API class.
+	 * Methods returning an Iterator are left out, their results must be consumed with JJsonPeer.sendStreamRequest.
+	 * For methods returning a CompletionStage, the stub methods return the value it completes with.
+	 * The Idempotent methods are marked as such on the peer of the stub.
+	 * @param api the API class.
+	 * @param methods the methods of the API.
+	 * @throws IOException if the source file cannot be written.
+	 */
+	private void writeStub(TypeElement api, List<ExecutableElement> methods) throws IOException {
+		String name = api.getSimpleName() + STUB_SUFFIX;
+		PrintWriter w = new PrintWriter(processingEnv.getFiler().createSourceFile(
+				getPackage(api).isEmpty() ? name : getPackage(api) + "." + name, api).openWriter());
+
+		writeHeader(w, api);
+		w.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+		w.println("public class " + name + " extends com.nbarraille.jjsonrpc.ClientStub {");
+		w.println();
+		w.println("\tpublic " + name + "(com.nbarraille.jjsonrpc.JJsonPeer peer) {");
+		w.println("\t\tsuper(peer);");
+		for(ExecutableElement m : methods) {
+			if(m.getAnnotation(Idempotent.class) != null) {
+				w.println("\t\tpeer.addIdempotentMethod(\"" + m.getSimpleName() + "\");");
+			}
+		}
+		w.println("\t}");
+		for(ExecutableElement m : methods) {
+			TypeMirror ret = getResultType(m);
+			if(isIterator(ret) || !m.getTypeParameters().isEmpty())
+				continue;
+
+			StringBuilder params = new StringBuilder();
+			StringBuilder args = new StringBuilder();
+			for(VariableElement p : m.getParameters()) {
+				params.append(params.length() == 0 ? "" : ", ").append(p.asType()).append(" ").append(p.getSimpleName());
+				args.append(args.length() == 0 ? "" : ", ").append(p.getSimpleName());
+			}
+			String call = "(\"" + m.getSimpleName() + "\", " + getErasure(ret) + ".class, new Object[] {" + args + "})";
+
+			w.println();
+			w.println("\tpublic " + ret + " " + m.getSimpleName() + "(" + params + ") {");
+			if(ret.getKind() == TypeKind.VOID) {
+				w.println("\t\tcall" + call + ";");
+			} else {
+				w.println("\t\treturn (" + getBoxedErasure(ret) + ") call" + call + ";");
+			}
+			w.println("\t}");
+			w.println();
+			w.println("\tpublic java.util.concurrent.CompletableFuture<" + getBoxed(ret) + "> " + m.getSimpleName()
+					+ ASYNC_SUFFIX + "(" + params + ") {");
+			w.println("\t\treturn (java.util.concurrent.CompletableFuture) callAsync" + call + ";");
+			w.println("\t}");
+		}
+		w.println("}");
+		w.close();
+	}
+
+	/**
+	 * Writes the package declaration and the comment of a generated class.
+	 */
+	private void writeHeader(PrintWriter w, TypeElement api) {
+		if(!getPackage(api).isEmpty()) {
+			w.println("package " + getPackage(api) + ";");
+			w.println();
+		}
+		w.println("/**");
+		w.println(" * Generated by " + getClass().getName() + " from " + api.getQualifiedName() + ". Do not edit.");
+		w.println(" */");
+	}
+
+	private String getPackage(TypeElement api) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(api);
+		return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+	}
+
+	/**
+	 * Returns the class literals of the parameter types of a method, separated by commas.
+	 */
+	private String getParameterClasses(ExecutableElement m) {
+		StringBuilder sb = new StringBuilder();
+		for(VariableElement p : m.getParameters()) {
+			sb.append(sb.length() == 0 ? " " : ", ").append(getErasure(p.asType())).append(".class");
+		}
+		return sb.length() == 0 ? "" : sb.append(" ").toString();
+	}
+
+	/**
+	 * Returns the string literals of the parameter names of a method (the value of their Param annotation, or their
+	 * name in the source), separated by commas.
+	 */
+	private String getParameterNames(ExecutableElement m) {
+		StringBuilder sb = new StringBuilder();
+		for(VariableElement p : m.getParameters()) {
+			Param param = p.getAnnotation(Param.class);
+			String name = param != null ? param.value() : p.getSimpleName().toString();
+			sb.append(sb.length() == 0 ? " " : ", ").append(processingEnv.getElementUtils().getConstantExpression(name));
+		}
+		return sb.length() == 0 ? "" : sb.append(" ").toString();
+	}
+
+	/**
+	 * Returns the expression converting a (cast) parameter to the type of the method parameter.
+	 */
+	private String getParameterCast(TypeMirror type, String expr) {
+		switch(type.getKind()) {
+		case BOOLEAN:
+			return "((Boolean) " + expr + ").booleanValue()";
+		case CHAR:
+			return "((Character) " + expr + ").charValue()";
+		case BYTE:
+		case SHORT:
+		case INT:
+		case LONG:
+		case FLOAT:
+		case DOUBLE:
+			return "((Number) " + expr + ")." + type.getKind().name().toLowerCase() + "Value()";
+		default:
+			return "(" + getErasure(type) + ") " + expr;
+		}
+	}
+
+	/**
+	 * Returns the Java source of the ResultCache of a method, or null if it is not Cacheable.
+	 */
+	private String getCache(ExecutableElement m) {
+		Cacheable c = m.getAnnotation(Cacheable.class);
+		if(c == null || isIterator(m.getReturnType()))
+			return "null";
+		return "new com.nbarraille.jjsonrpc.ResultCache(" + c.maxSize() + ", " + c.ttl() + "L, " + c.preserialize() + ")";
+	}
+
+	/**
+	 * Returns the Java source of the Lane of a method, or null if it has no Bulkhead.
+	 */
+	private String getLane(ExecutableElement m) {
+		Bulkhead b = m.getAnnotation(Bulkhead.class);
+		if(b == null)
+			return "null";
+		String error = Lane.validate(b.threads(), b.queueSize(), b.priority());
+		if(error != null) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Invalid Bulkhead: " + error, m);
+			return "null";
+		}
+		// The lanes are shared by name, see Lane.get
+		Bulkhead declared = _lanes.get(b.value());
+		if(declared == null) {
+			_lanes.put(b.value(), b);
+		} else if(declared.threads() != b.threads() || declared.queueSize() != b.queueSize()
+				|| declared.priority() != b.priority()) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Invalid Bulkhead: the lane " + b.value()
+					+ " is declared with other settings by another method", m);
+			return "null";
+		}
+		return "com.nbarraille.jjsonrpc.Lane.get(" + processingEnv.getElementUtils().getConstantExpression(b.value())
+				+ ", " + b.threads() + ", " + b.queueSize() + ", " + b.priority() + ")";
+	}
+
+	private boolean isSingleFlight(ExecutableElement m) {
+		return m.getAnnotation(SingleFlight.class) != null && !isIterator(m.getReturnType());
+	}
+
+	/**
+	 * Returns the type of the result a method sends back: the type of the value of the CompletionStage it returns,
+	 * or its return type if it is not asynchronous.
+	 */
+	private TypeMirror getResultType(ExecutableElement m) {
+		TypeMirror ret = m.getReturnType();
+		TypeMirror stage = processingEnv.getElementUtils().getTypeElement("java.util.concurrent.CompletionStage").asType();
+		if(ret.getKind() != TypeKind.DECLARED || !processingEnv.getTypeUtils().isAssignable(
+				processingEnv.getTypeUtils().erasure(ret), processingEnv.getTypeUtils().erasure(stage)))
+			return ret;
+		
+		List<? extends TypeMirror> args = ((DeclaredType) ret).getTypeArguments();
+		if(args.size() == 1 && (args.get(0).getKind() == TypeKind.DECLARED || args.get(0).getKind() == TypeKind.ARRAY))
+			return args.get(0);
+		return processingEnv.getElementUtils().getTypeElement("java.lang.Object").asType();
+	}
+
+	private boolean isIterator(TypeMirror type) {
+		TypeMirror iterator = processingEnv.getElementUtils().getTypeElement("java.util.Iterator").asType();
+		return type.getKind() == TypeKind.DECLARED && processingEnv.getTypeUtils().isAssignable(
+				processingEnv.getTypeUtils().erasure(type), processingEnv.getTypeUtils().erasure(iterator));
+	}
+
+	private String getErasure(TypeMirror type) {
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+
+	private String getBoxed(TypeMirror type) {
+		if(type.getKind() == TypeKind.VOID)
+			return "Void";
+		if(type.getKind().isPrimitive())
+			return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+		return type.toString();
+	}
+
+	private String getBoxedErasure(TypeMirror type) {
+		if(type.getKind().isPrimitive())
+			return getBoxed(type);
+		return getErasure(type);
+	}
+}